@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.flowManager.impl.NodeDataTreeChangeListener.PushResult;
+import org.opendaylight.flowManager.impl.utils.FlowUtils;
+import org.opendaylight.flowManager.impl.utils.LongObjectMap;
+import org.opendaylight.flowManager.impl.utils.MdsalUtils;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.OutputActionCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCase;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.Instruction;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.GetAuditStatisticsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.GetAuditStatisticsOutputBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background auditor comparing the flood flows found in the operational inventory with the flows
+ * flowManager expects, e.g. to catch the flows a switch dropped on its own.
+ *
+ * Every second at most {@code readsPerSecond} nodes are audited, one operational table read each, walking
+ * the provisioned nodes round-robin. Flows are compared through a fingerprint of their in port and output
+ * ports rather than field by field. A flow is repaired once it was missing or different on two audits in
+ * a row, so flows just written and not yet reported by the statistics are not rewritten. The configuration
+ * datastore still holds the flow, so it is pushed to the switch directly and only counted as repaired once
+ * the switch accepted it.
+ */
+public class FlowAuditor implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowAuditor.class);
+    private static final short TABLE_ID = 0;
+    private static final int FLOOD_PRIORITY = 0;
+    private static final long MIN_CYCLE_INTERVAL = 30000;
+
+    private final DataBroker dataBroker;
+    private final NodeDataTreeChangeListener nodeListener;
+    private final int readsPerSecond;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // only touched by the scheduler thread
+    private final LongObjectMap<Set<String>> suspects = new LongObjectMap<>();
+    private List<SwitchPorts> cycle = Lists.newArrayList();
+    private int position;
+    private long cycleStart;
+
+    private final AtomicLong cyclesCompleted = new AtomicLong();
+    private final AtomicLong lastCycleDuration = new AtomicLong();
+    private final AtomicLong nodesAudited = new AtomicLong();
+    private final AtomicLong flowsChecked = new AtomicLong();
+    private final AtomicLong flowsDivergent = new AtomicLong();
+    private final AtomicLong flowsRepaired = new AtomicLong();
+    private final AtomicLong repairsFailed = new AtomicLong();
+    private volatile BigDecimal cycleCoverage = BigDecimal.ZERO;
+
+    /**
+     * @param dataBroker Mdsal data Broker
+     * @param nodeListener listener owning the expected flows and their write path
+     * @param readsPerSecond number of nodes audited per second, 0 to disable the auditor
+     */
+    public FlowAuditor(final DataBroker dataBroker, final NodeDataTreeChangeListener nodeListener,
+                       final int readsPerSecond) {
+        this.dataBroker = dataBroker;
+        this.nodeListener = nodeListener;
+        this.readsPerSecond = readsPerSecond;
+        if (readsPerSecond > 0) {
+            scheduler.scheduleWithFixedDelay(this::auditNextNodes, 1, 1, TimeUnit.SECONDS);
+            LOG.info("FlowAuditor started, {} nodes per second", readsPerSecond);
+        }
+    }
+
+    /**
+     * @return the coverage and repair counters
+     */
+    public GetAuditStatisticsOutput getStatistics() {
+        return new GetAuditStatisticsOutputBuilder()
+                .setCyclesCompleted(BigInteger.valueOf(cyclesCompleted.get()))
+                .setLastCycleDuration(BigInteger.valueOf(lastCycleDuration.get()))
+                .setCycleCoverage(cycleCoverage)
+                .setNodesAudited(BigInteger.valueOf(nodesAudited.get()))
+                .setFlowsChecked(BigInteger.valueOf(flowsChecked.get()))
+                .setFlowsDivergent(BigInteger.valueOf(flowsDivergent.get()))
+                .setFlowsRepaired(BigInteger.valueOf(flowsRepaired.get()))
+                .setRepairsFailed(BigInteger.valueOf(repairsFailed.get()))
+                .build();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void auditNextNodes() {
+        final long now = System.currentTimeMillis();
+        if (position >= cycle.size()) {
+            // a small topology is not audited more often than the statistics are refreshed
+            if (now - cycleStart < MIN_CYCLE_INTERVAL) {
+                return;
+            }
+            startCycle(now);
+        }
+        final int end = Math.min(cycle.size(), position + readsPerSecond);
+        for (; position < end; position++) {
+            final long dpid = cycle.get(position).getDpid();
+            try {
+                audit(dpid);
+            } catch (RuntimeException e) {
+                // never let one node stop the periodic audit
+                LOG.warn("Failed to audit switch {}", dpid, e);
+            }
+        }
+        cycleCoverage = BigDecimal.valueOf(position * 100L)
+                .divide(BigDecimal.valueOf(Math.max(1, cycle.size())), 2, RoundingMode.HALF_UP);
+        if (position == cycle.size() && !cycle.isEmpty()) {
+            cyclesCompleted.incrementAndGet();
+            lastCycleDuration.set(System.currentTimeMillis() - cycleStart);
+        }
+    }
+
+    private void startCycle(final long now) {
+        cycle = nodeListener.getProvisionedSwitches();
+        position = 0;
+        cycleStart = now;
+        // forget the suspects of the nodes that went away
+        final LongObjectMap<Set<String>> kept = new LongObjectMap<>();
+        for (SwitchPorts switchPorts : cycle) {
+            final Set<String> nodeSuspects = suspects.get(switchPorts.getDpid());
+            if (nodeSuspects != null) {
+                kept.put(switchPorts.getDpid(), nodeSuspects);
+            }
+        }
+        suspects.clear();
+        kept.forEach(suspects::put);
+    }
+
+    /**
+     * Compare the flows of a node with the expected ones and repair those divergent on the previous audit too.
+     * @param dpid datapath id of the switch
+     */
+    void audit(final long dpid) {
+        final List<FlowBuilder> expected = nodeListener.getExpectedFlows(dpid);
+        if (expected.isEmpty()) {
+            suspects.remove(dpid);
+            return;
+        }
+        final Table table = MdsalUtils.read(dataBroker, LogicalDatastoreType.OPERATIONAL,
+                FlowUtils.createTablePath(FlowUtils.createNodeBuilder(dpid), TABLE_ID));
+        nodesAudited.incrementAndGet();
+
+        final Map<String, Long> actual = Maps.newHashMap();
+        if (table != null && table.getFlow() != null) {
+            for (Flow flow : table.getFlow()) {
+                final String inPort = inPort(flow);
+                if (inPort != null && flow.getPriority() != null && flow.getPriority() == FLOOD_PRIORITY) {
+                    actual.put(inPort, fingerprint(flow));
+                }
+            }
+        }
+
+        final Set<String> divergent = Sets.newHashSet();
+        for (FlowBuilder flowBuilder : expected) {
+            final Flow flow = flowBuilder.build();
+            final Long found = actual.get(inPort(flow));
+            if (found == null || found != fingerprint(flow)) {
+                divergent.add(flow.getId().getValue());
+            }
+        }
+        flowsChecked.addAndGet(expected.size());
+
+        final Set<String> previous = suspects.get(dpid);
+        final Set<String> confirmed = previous == null ? Sets.newHashSet() : Sets.newHashSet(previous);
+        confirmed.retainAll(divergent);
+        divergent.removeAll(confirmed);
+        if (divergent.isEmpty()) {
+            suspects.remove(dpid);
+        } else {
+            suspects.put(dpid, divergent);
+        }
+        if (!confirmed.isEmpty()) {
+            repair(dpid, confirmed);
+        }
+    }
+
+    private void repair(final long dpid, final Set<String> flowIds) {
+        LOG.info("Flows {} of switch {} are missing or different, repair them", flowIds, dpid);
+        flowsDivergent.addAndGet(flowIds.size());
+        Futures.addCallback(nodeListener.repairFlows(dpid, flowIds), new FutureCallback<PushResult>() {
+            @Override
+            public void onSuccess(final PushResult result) {
+                // only the flows the switch accepted are repaired
+                flowsRepaired.addAndGet(result.getPushed());
+                repairsFailed.addAndGet(result.getFailed());
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                repairsFailed.addAndGet(flowIds.size());
+                LOG.warn("Failed to repair the flows of switch {}", dpid, throwable);
+            }
+        });
+    }
+
+    /**
+     * @return the port number part of the in port match, null when the flow does not match on an in port
+     */
+    private static String inPort(final Flow flow) {
+        if (flow.getMatch() == null || flow.getMatch().getInPort() == null) {
+            return null;
+        }
+        return portName(flow.getMatch().getInPort().getValue());
+    }
+
+    /**
+     * FNV-1a hash of the in port and the ordered output ports of the apply actions. Ports are reduced to
+     * their last segment, so openflow:1:2 and 2 hash alike whichever form the statistics report.
+     */
+    static long fingerprint(final Flow flow) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, inPort(flow));
+        if (flow.getInstructions() == null || flow.getInstructions().getInstruction() == null) {
+            return hash;
+        }
+        for (Instruction instruction : flow.getInstructions().getInstruction()) {
+            if (!(instruction.getInstruction() instanceof ApplyActionsCase)) {
+                continue;
+            }
+            final ApplyActionsCase applyActions = (ApplyActionsCase) instruction.getInstruction();
+            if (applyActions.getApplyActions() == null || applyActions.getApplyActions().getAction() == null) {
+                continue;
+            }
+            final List<Action> ordered = Lists.newArrayList(applyActions.getApplyActions().getAction());
+            ordered.sort(Comparator.comparing(action -> action.getOrder() == null ? 0 : action.getOrder()));
+            for (Action action : ordered) {
+                if (action.getAction() instanceof OutputActionCase) {
+                    final OutputActionCase output = (OutputActionCase) action.getAction();
+                    if (output.getOutputAction() != null && output.getOutputAction().getOutputNodeConnector() != null) {
+                        hash = hash(hash, portName(output.getOutputAction().getOutputNodeConnector().getValue()));
+                    }
+                }
+            }
+        }
+        return hash;
+    }
+
+    private static long hash(long hash, final String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // separator, so that ports 1,12 and 11,2 differ
+        return (hash ^ 0xff) * 0x100000001b3L;
+    }
+
+    private static String portName(final String nodeConnector) {
+        return nodeConnector.substring(nodeConnector.lastIndexOf(':') + 1);
+    }
+}
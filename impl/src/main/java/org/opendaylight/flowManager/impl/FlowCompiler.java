@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+/**
+ * Compiles the flows of a node as independent per-port tasks.
+ *
+ * Up to the threshold the ports are compiled serially on the calling thread, above it the port range is
+ * split on a {@link ForkJoinPool}. Every result is stored at the index of its port, so the returned list
+ * keeps the termination point order whatever the scheduling.
+ */
+public class FlowCompiler implements AutoCloseable {
+
+    public static final int DEFAULT_THRESHOLD = 64;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    public FlowCompiler() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param parallelism number of compilation threads
+     * @param threshold number of ports up to which a node is compiled serially, also the size of a task
+     */
+    public FlowCompiler(final int parallelism, final int threshold) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.threshold = Math.max(1, threshold);
+    }
+
+    /**
+     * Compile one result per port.
+     * @param count number of ports
+     * @param task compiles the result of the port at the given index
+     * @param <T> the compiled type
+     * @return the results, in port index order
+     */
+    public <T> List<T> compile(final int count, final IntFunction<T> task) {
+        final Object[] results = new Object[count];
+        if (count <= threshold) {
+            for (int i = 0; i < count; i++) {
+                results[i] = task.apply(i);
+            }
+        } else {
+            pool.invoke(new CompileAction<>(task, results, 0, count, threshold));
+        }
+        @SuppressWarnings("unchecked")
+        final List<T> compiled = (List<T>) Arrays.asList(results);
+        return compiled;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private static final class CompileAction<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntFunction<T> task;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+        private final int threshold;
+
+        CompileAction(final IntFunction<T> task, final Object[] results, final int from, final int to,
+                      final int threshold) {
+            this.task = task;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++) {
+                    results[i] = task.apply(i);
+                }
+                return;
+            }
+            final int middle = (from + to) >>> 1;
+            invokeAll(new CompileAction<>(task, results, from, middle, threshold),
+                    new CompileAction<>(task, results, middle, to, threshold));
+        }
+    }
+}
@@ -8,25 +8,85 @@
 package org.opendaylight.flowManager.impl;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.controller.md.sal.binding.api.NotificationService;
+import org.opendaylight.flowManager.impl.utils.WriteBehindFlusher;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.FlowManagerConfig;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ForwardingMode;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class FlowManagerProvider {
 
     private static final Logger LOG = LoggerFactory.getLogger(FlowManagerProvider.class);
+    private static final int DEFAULT_MAC_TABLE_SIZE = 4096;
+    private static final int DEFAULT_MAC_IDLE_TIMEOUT = 300;
+    private static final long DEFAULT_PORT_DAMPING_INTERVAL = 2000;
+    private static final int DEFAULT_FLUSH_MAX_OPERATIONS = 256;
+    private static final long DEFAULT_FLUSH_INTERVAL = 20;
+    private static final int DEFAULT_AUDIT_READS_PER_SECOND = 10;
+    private final WriteBehindFlusher flusher;
     private final NodeDataTreeChangeListener dataTree;
+    private final PortFilterDataTreeChangeListener portFilterTree;
+    private final PortStatusDataTreeChangeListener portStatusTree;
+    private final FlowAuditor flowAuditor;
+    private final FlowRefresher flowRefresher;
+    private final FlowManagerServiceImpl flowManagerService;
+    private final MacLearningPacketHandler macLearning;
+    private ListenerRegistration<MacLearningPacketHandler> packetInRegistration;
 
     private final DataBroker dataBroker;
+    private final NotificationService notificationService;
 
-    public FlowManagerProvider(final DataBroker dataBroker) {
+    public FlowManagerProvider(final DataBroker dataBroker, final NotificationService notificationService,
+                               final NotificationPublishService notificationPublishService,
+                               final SalFlowService salFlowService, final FlowManagerConfig config) {
         this.dataBroker = dataBroker;
-        this.dataTree = new NodeDataTreeChangeListener(dataBroker);
+        this.notificationService = notificationService;
+        // unset leaves are not filled with their yang default
+        this.flusher = new WriteBehindFlusher(dataBroker,
+                config.getFlushMaxOperations() == null
+                        ? DEFAULT_FLUSH_MAX_OPERATIONS : config.getFlushMaxOperations().intValue(),
+                config.getFlushInterval() == null ? DEFAULT_FLUSH_INTERVAL : config.getFlushInterval());
+        if (config.getForwardingMode() == ForwardingMode.MacLearning) {
+            this.macLearning = new MacLearningPacketHandler(flusher, salFlowService,
+                    config.getMacTableSize() == null ? DEFAULT_MAC_TABLE_SIZE : config.getMacTableSize().intValue(),
+                    config.getMacIdleTimeout() == null ? DEFAULT_MAC_IDLE_TIMEOUT : config.getMacIdleTimeout());
+        } else {
+            this.macLearning = null;
+        }
+        final PortLiveness portLiveness = new PortLiveness();
+        this.flowRefresher = new FlowRefresher();
+        // read before the node listener is registered and provisions the existing nodes
+        this.dataTree = new NodeDataTreeChangeListener(dataBroker, flusher, salFlowService, flowRefresher,
+                macLearning, portLiveness, PortFilterDataTreeChangeListener.readPortFilter(dataBroker));
+        this.portFilterTree = new PortFilterDataTreeChangeListener(dataBroker, dataTree);
+        this.portStatusTree = new PortStatusDataTreeChangeListener(dataBroker, portLiveness, dataTree,
+                config.getPortDampingInterval() == null
+                        ? DEFAULT_PORT_DAMPING_INTERVAL : config.getPortDampingInterval());
+        this.flowAuditor = new FlowAuditor(dataBroker, dataTree,
+                config.getAuditReadsPerSecond() == null
+                        ? DEFAULT_AUDIT_READS_PER_SECOND : config.getAuditReadsPerSecond().intValue());
+        this.flowManagerService = new FlowManagerServiceImpl(dataTree, flowAuditor, notificationPublishService);
+    }
+
+    /**
+     * @return the flowManager RPC implementation, registered by the blueprint container
+     */
+    public FlowManagerServiceImpl getFlowManagerService() {
+        return flowManagerService;
     }
 
     /**
      * Method called when the blueprint container is created.
      */
     public void init() {
+        flowRefresher.start(dataTree);
+        if (macLearning != null) {
+            packetInRegistration = notificationService.registerNotificationListener(macLearning);
+        }
         LOG.info("FlowManagerProvider Session Initiated");
     }
 
@@ -34,6 +94,25 @@ public class FlowManagerProvider {
      * Method called when the blueprint container is destroyed.
      */
     public void close() {
+        if (packetInRegistration != null) {
+            packetInRegistration.close();
+        }
+        flowManagerService.close();
+        flowAuditor.close();
+        flowRefresher.close();
+        try {
+            portStatusTree.close();
+            portFilterTree.close();
+            dataTree.close();
+        } catch (Exception e) {
+            LOG.warn("Failed to close NodeDataTreeChangeListener", e);
+        }
+        // after the node listener, which hands the removed nodes to the MAC learning workers
+        if (macLearning != null) {
+            macLearning.close();
+        }
+        // submit what the listeners left in the buffer
+        flusher.close();
         LOG.info("FlowManagerProvider Closed");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.flowManager.impl.NodeDataTreeChangeListener.PushResult;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.FlowManagerService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.GetAuditStatisticsOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ReprovisionInput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ReprovisionOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ReprovisionOutputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ReprovisionProgressBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.reprovision.output.FailedNode;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.reprovision.output.FailedNodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.reprovision.output.FailedNodeKey;
+import org.opendaylight.yangtools.yang.common.RpcError.ErrorType;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+import org.opendaylight.yangtools.yang.common.RpcResultBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Implementation of the flowManager RPCs.
+ *
+ * A reprovision runs on its own driver thread: the selected nodes are split in batches, the nodes of a
+ * batch are pushed again concurrently by at most {@code parallelism} workers through the node listener,
+ * and a progress notification is published after each batch. Only one reprovision runs at a time.
+ */
+public class FlowManagerServiceImpl implements FlowManagerService, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowManagerServiceImpl.class);
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_BATCH_SIZE = 32;
+
+    private final NodeDataTreeChangeListener nodeListener;
+    private final FlowAuditor flowAuditor;
+    private final NotificationPublishService notificationPublishService;
+    private final ExecutorService driver = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    public FlowManagerServiceImpl(final NodeDataTreeChangeListener nodeListener, final FlowAuditor flowAuditor,
+                                  final NotificationPublishService notificationPublishService) {
+        this.nodeListener = nodeListener;
+        this.flowAuditor = flowAuditor;
+        this.notificationPublishService = notificationPublishService;
+    }
+
+    @Override
+    public Future<RpcResult<ReprovisionOutput>> reprovision(final ReprovisionInput input) {
+        final Pattern selector;
+        try {
+            selector = input == null || input.getNodeSelector() == null
+                    ? null : Pattern.compile(input.getNodeSelector());
+        } catch (PatternSyntaxException e) {
+            return RpcResultBuilder.<ReprovisionOutput>failed()
+                    .withError(ErrorType.APPLICATION, "Invalid node-selector: " + e.getMessage()).buildFuture();
+        }
+        final int parallelism = input == null || input.getParallelism() == null
+                ? DEFAULT_PARALLELISM : input.getParallelism();
+        final int batchSize = input == null || input.getBatchSize() == null
+                ? DEFAULT_BATCH_SIZE : input.getBatchSize();
+        if (parallelism < 1 || batchSize < 1) {
+            return RpcResultBuilder.<ReprovisionOutput>failed()
+                    .withError(ErrorType.APPLICATION, "parallelism and batch-size must be positive").buildFuture();
+        }
+        if (!running.compareAndSet(false, true)) {
+            return RpcResultBuilder.<ReprovisionOutput>failed()
+                    .withError(ErrorType.APPLICATION, "A reprovision is already running").buildFuture();
+        }
+
+        final SettableFuture<RpcResult<ReprovisionOutput>> result = SettableFuture.create();
+        try {
+            driver.execute(() -> {
+                final ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+                try {
+                    result.set(RpcResultBuilder.success(reprovision(selector, batchSize, workers)).build());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.set(RpcResultBuilder.<ReprovisionOutput>failed()
+                            .withError(ErrorType.APPLICATION, "Reprovision interrupted", e).build());
+                } catch (RuntimeException e) {
+                    LOG.error("Reprovision failed", e);
+                    result.set(RpcResultBuilder.<ReprovisionOutput>failed()
+                            .withError(ErrorType.APPLICATION, "Reprovision failed: " + e.getMessage(), e).build());
+                } finally {
+                    workers.shutdownNow();
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            return RpcResultBuilder.<ReprovisionOutput>failed()
+                    .withError(ErrorType.APPLICATION, "flowManager is shutting down", e).buildFuture();
+        }
+        return result;
+    }
+
+    @Override
+    public Future<RpcResult<GetAuditStatisticsOutput>> getAuditStatistics() {
+        return RpcResultBuilder.success(flowAuditor.getStatistics()).buildFuture();
+    }
+
+    @Override
+    public void close() {
+        driver.shutdownNow();
+    }
+
+    private ReprovisionOutput reprovision(final Pattern selector, final int batchSize, final ExecutorService workers)
+            throws InterruptedException {
+        final List<SwitchPorts> nodes = Lists.newArrayList();
+        for (SwitchPorts switchPorts : nodeListener.getProvisionedSwitches()) {
+            if (selector == null || selector.matcher(switchPorts.getNodeId()).matches()) {
+                nodes.add(switchPorts);
+            }
+        }
+        LOG.info("Reprovisioning {} nodes in batches of {}", nodes.size(), batchSize);
+
+        final long start = System.currentTimeMillis();
+        final List<FailedNode> failedNodes = Lists.newArrayList();
+        long flowsWritten = 0;
+        int done = 0;
+        for (List<SwitchPorts> batch : Lists.partition(nodes, batchSize)) {
+            final List<Callable<PushResult>> tasks = Lists.newArrayListWithCapacity(batch.size());
+            batch.forEach(switchPorts -> tasks.add(() -> nodeListener.reprovision(switchPorts.getDpid())));
+            final List<Future<PushResult>> futures = workers.invokeAll(tasks);
+            for (int i = 0; i < batch.size(); i++) {
+                final String nodeId = batch.get(i).getNodeId();
+                try {
+                    // only the flows the switch accepted are written
+                    final PushResult pushed = futures.get(i).get();
+                    flowsWritten += pushed.getPushed();
+                    if (pushed.getFailed() > 0) {
+                        failedNodes.add(failedNode(nodeId, pushed.getFailed() + " flows rejected by the switch"));
+                    }
+                } catch (ExecutionException e) {
+                    LOG.warn("Failed to reprovision node {}", nodeId, e.getCause());
+                    failedNodes.add(failedNode(nodeId, String.valueOf(e.getCause().getMessage())));
+                }
+            }
+            done += batch.size();
+            publishProgress(nodes.size(), done, failedNodes.size(), flowsWritten, System.currentTimeMillis() - start);
+        }
+
+        final long elapsed = System.currentTimeMillis() - start;
+        LOG.info("Reprovisioned {} nodes ({} failed), {} flows in {} ms", nodes.size(), failedNodes.size(),
+                flowsWritten, elapsed);
+        return new ReprovisionOutputBuilder()
+                .setNodesTotal((long) nodes.size())
+                .setNodesReprovisioned((long) (nodes.size() - failedNodes.size()))
+                .setNodesFailed((long) failedNodes.size())
+                .setFlowsWritten(BigInteger.valueOf(flowsWritten))
+                .setElapsed(BigInteger.valueOf(elapsed))
+                .setNodesPerSecond(perSecond(nodes.size(), elapsed))
+                .setFlowsPerSecond(perSecond(flowsWritten, elapsed))
+                .setFailedNode(failedNodes)
+                .build();
+    }
+
+    private static FailedNode failedNode(final String nodeId, final String reason) {
+        return new FailedNodeBuilder()
+                .setKey(new FailedNodeKey(nodeId))
+                .setNodeId(nodeId)
+                .setReason(reason)
+                .build();
+    }
+
+    private void publishProgress(final int total, final int done, final int failed, final long flowsWritten,
+                                 final long elapsed) {
+        if (notificationPublishService == null) {
+            return;
+        }
+        // never block the reprovision on a slow notification consumer
+        notificationPublishService.offerNotification(new ReprovisionProgressBuilder()
+                .setNodesTotal((long) total)
+                .setNodesDone((long) done)
+                .setNodesReprovisioned((long) (done - failed))
+                .setNodesFailed((long) failed)
+                .setFlowsWritten(BigInteger.valueOf(flowsWritten))
+                .setElapsed(BigInteger.valueOf(elapsed))
+                .build());
+    }
+
+    private static BigDecimal perSecond(final long count, final long elapsedMillis) {
+        if (elapsedMillis <= 0) {
+            return BigDecimal.ZERO;
+        }
+        return BigDecimal.valueOf(count * 1000L).divide(BigDecimal.valueOf(elapsedMillis), 2, RoundingMode.HALF_UP);
+    }
+}
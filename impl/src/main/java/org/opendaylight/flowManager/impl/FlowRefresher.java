@@ -0,0 +1,264 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.opendaylight.flowManager.impl.NodeDataTreeChangeListener.PushResult;
+import org.opendaylight.flowManager.impl.utils.HashedTimingWheel;
+import org.opendaylight.flowManager.impl.utils.HashedTimingWheel.Timeout;
+import org.opendaylight.flowManager.impl.utils.LongObjectMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks when the programmed flows reach their hard timeout and refreshes them beforehand.
+ *
+ * Every flow programmed with a hard timeout gets a deadline in a {@link HashedTimingWheel}, pushing it again
+ * moves that deadline and deleting it cancels it. A datastore rewrite of an existing flow keeps the
+ * deadline, the switch modifies such an entry in place and keeps its timeouts. The refresh happens between
+ * {@code REFRESH_LEAD} and {@code REFRESH_LEAD} plus a tenth of the timeout before expiry, picked at random
+ * per flow, so the flows of switches provisioned in the same burst drift apart instead of all expiring and
+ * being refreshed at once.
+ *
+ * A refresh pushes the flow again as an OpenFlow ADD, without writing the datastore, which replaces the
+ * entry in place and restarts its hard timeout without any forwarding gap, so its cost is one flow mod per
+ * flow and timeout period. The hard timeout is kept as a safety net: flows flowManager lost track of, e.g.
+ * while it was stopped or after a missed port change, still age out of the switches.
+ *
+ * Flows are identified by their switch and in port. The deadlines of a switch are kept in a primitive map
+ * keyed by port and their wheel timeouts share the switch as payload, the port and expiry being packed in
+ * the timeout key, so a tracked flow costs one timeout and one map slot.
+ *
+ * The flows of a switch due in the same tick are refreshed together. The refreshes per tick are capped to
+ * twice the steady rate of the tracked flows, at least {@code MIN_REFRESHES_PER_TICK}, the others are
+ * deferred to the next tick; deferred and late refreshes are counted and logged.
+ */
+public class FlowRefresher implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FlowRefresher.class);
+    private static final long TICK_DURATION = 1000;
+    private static final int TICKS_PER_WHEEL = 512;
+    private static final long REFRESH_LEAD = 60000;
+    private static final int MIN_REFRESHES_PER_TICK = 256;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final long origin = System.currentTimeMillis();
+    // guarded by this
+    private final HashedTimingWheel<NodeDeadlines> wheel =
+            new HashedTimingWheel<>(TICKS_PER_WHEEL, TICK_DURATION, origin);
+    private final LongObjectMap<NodeDeadlines> deadlines = new LongObjectMap<>();
+    private long shortestTimeout = Long.MAX_VALUE;
+    private NodeDataTreeChangeListener nodeListener;
+    private final AtomicLong deferredRefreshes = new AtomicLong();
+    private final AtomicLong lateRefreshes = new AtomicLong();
+
+    /**
+     * Start refreshing the flows through the node listener push path.
+     * @param nodeListener listener owning the flows
+     */
+    public void start(final NodeDataTreeChangeListener nodeListener) {
+        this.nodeListener = nodeListener;
+        scheduler.scheduleWithFixedDelay(this::refreshDueFlows, TICK_DURATION, TICK_DURATION, TimeUnit.MILLISECONDS);
+        LOG.info("FlowRefresher started");
+    }
+
+    /**
+     * Record that a flow was written to the datastore. A new flow gets a deadline, a known flow keeps its own
+     * since the switch entry keeps its timeouts when it is modified.
+     * @param dpid datapath id of the switch
+     * @param port in port of the flow
+     * @param hardTimeout hard timeout of the flow in seconds, 0 when it never expires
+     */
+    public synchronized void written(final long dpid, final int port, final int hardTimeout) {
+        final NodeDeadlines node = deadlines.get(dpid);
+        if (node == null || !node.timeouts.containsKey(port)) {
+            programmed(dpid, port, hardTimeout);
+        }
+    }
+
+    /**
+     * Record that a flow was pushed to the switch, its hard timeout starts over.
+     * @param dpid datapath id of the switch
+     * @param port in port of the flow
+     * @param hardTimeout hard timeout of the flow in seconds, 0 when it never expires
+     */
+    public synchronized void programmed(final long dpid, final int port, final int hardTimeout) {
+        NodeDeadlines node = deadlines.get(dpid);
+        if (node == null) {
+            if (hardTimeout <= 0) {
+                return;
+            }
+            node = new NodeDeadlines(dpid);
+            deadlines.put(dpid, node);
+        }
+        final Timeout<NodeDeadlines> previous;
+        if (hardTimeout <= 0) {
+            previous = node.timeouts.remove(port);
+        } else {
+            previous = node.timeouts.put(port, schedule(node, port, hardTimeout));
+            shortestTimeout = Math.min(shortestTimeout, hardTimeout * 1000L);
+        }
+        cancel(previous);
+    }
+
+    /**
+     * Forget the deadline of a deleted flow.
+     * @param dpid datapath id of the switch
+     * @param port in port of the flow
+     */
+    public synchronized void removed(final long dpid, final int port) {
+        final NodeDeadlines node = deadlines.get(dpid);
+        if (node != null) {
+            cancel(node.timeouts.remove(port));
+        }
+    }
+
+    /**
+     * Forget the deadlines of every flow of a switch.
+     * @param dpid datapath id of the switch
+     */
+    public synchronized void forgetNode(final long dpid) {
+        final NodeDeadlines node = deadlines.remove(dpid);
+        if (node != null) {
+            node.timeouts.forEach((port, timeout) -> cancel(timeout));
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void cancel(final Timeout<NodeDeadlines> timeout) {
+        if (timeout != null) {
+            wheel.cancel(timeout);
+        }
+    }
+
+    private Timeout<NodeDeadlines> schedule(final NodeDeadlines node, final int port, final int hardTimeout) {
+        final long timeout = hardTimeout * 1000L;
+        final long now = System.currentTimeMillis();
+        final long lead = Math.min(timeout / 2,
+                REFRESH_LEAD + ThreadLocalRandom.current().nextLong(timeout / 10 + 1));
+        return wheel.schedule(node, key(port, now + timeout), now + timeout - lead);
+    }
+
+    /**
+     * @return the port in the low half and the expiry, in seconds since the origin rounded up, in the high half
+     */
+    private long key(final int port, final long expiry) {
+        return ((expiry - origin + 999) / 1000) << 32 | Integer.toUnsignedLong(port);
+    }
+
+    private static int port(final long key) {
+        return (int) key;
+    }
+
+    private long expiry(final long key) {
+        return origin + (key >>> 32) * 1000;
+    }
+
+    /**
+     * @return twice the refreshes per tick of the tracked flows, as if they all had the shortest timeout
+     */
+    private int refreshesPerTick() {
+        // every tracked flow has exactly one pending deadline
+        final long trackedFlows = wheel.size();
+        if (trackedFlows == 0) {
+            return MIN_REFRESHES_PER_TICK;
+        }
+        return (int) Math.min(Integer.MAX_VALUE,
+                Math.max(MIN_REFRESHES_PER_TICK, 2 * trackedFlows * TICK_DURATION / shortestTimeout + 1));
+    }
+
+    private void refreshDueFlows() {
+        final LongObjectMap<Set<Integer>> due = new LongObjectMap<>();
+        // refreshed, deferred and late flows
+        final int[] counts = new int[3];
+        final int maxRefreshes;
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            maxRefreshes = refreshesPerTick();
+            wheel.advance(now, (node, key) -> {
+                if (deadlines.get(node.dpid) != node) {
+                    return;
+                }
+                final int port = port(key);
+                if (counts[0] >= maxRefreshes) {
+                    // the backlog drains as the cap is above the steady rate
+                    node.timeouts.put(port, wheel.schedule(node, key, now + TICK_DURATION));
+                    counts[1]++;
+                    return;
+                }
+                counts[0]++;
+                if (expiry(key) <= now) {
+                    counts[2]++;
+                }
+                node.timeouts.remove(port);
+                Set<Integer> ports = due.get(node.dpid);
+                if (ports == null) {
+                    ports = Sets.newHashSet();
+                    due.put(node.dpid, ports);
+                }
+                ports.add(port);
+            });
+        }
+        if (counts[1] > 0) {
+            LOG.warn("Deferred {} flow refreshes over the cap of {} per tick, {} deferred in total",
+                    counts[1], maxRefreshes, deferredRefreshes.addAndGet(counts[1]));
+        }
+        if (counts[2] > 0) {
+            LOG.warn("Refreshing {} flows after their hard timeout, {} late in total",
+                    counts[2], lateRefreshes.addAndGet(counts[2]));
+        }
+        due.forEach(this::refresh);
+    }
+
+    private void refresh(final long dpid, final Set<Integer> ports) {
+        LOG.debug("Refresh flows of ports {} of switch {} before their hard timeout", ports, dpid);
+        // pushing the flows again restarts their hard timeout, the node listener re-arms their deadlines
+        Futures.addCallback(nodeListener.refreshFlows(dpid, ports),
+                new FutureCallback<PushResult>() {
+                    @Override
+                    public void onSuccess(final PushResult result) {
+                        if (result.getFailed() > 0) {
+                            // left to expire, the auditor pushes them again once they are missing
+                            LOG.warn("Failed to refresh {} of the flows of ports {} of switch {}",
+                                    result.getFailed(), ports, dpid);
+                        }
+                        LOG.debug("Refreshed {} flows of switch {}", result.getPushed(), dpid);
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable throwable) {
+                        LOG.warn("Failed to refresh the flows of ports {} of switch {}", ports, dpid, throwable);
+                    }
+                });
+    }
+
+    /**
+     * Deadlines of the flows of one switch, keyed by in port.
+     */
+    private static final class NodeDeadlines {
+        private final long dpid;
+        private final LongObjectMap<Timeout<NodeDeadlines>> timeouts = new LongObjectMap<>();
+
+        NodeDeadlines(final long dpid) {
+            this.dpid = dpid;
+        }
+    }
+}
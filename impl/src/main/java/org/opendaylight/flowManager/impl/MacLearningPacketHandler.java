@@ -0,0 +1,467 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.flowManager.impl.utils.FlowUtils;
+import org.opendaylight.flowManager.impl.utils.LongObjectMap;
+import org.opendaylight.flowManager.impl.utils.MatchUtils;
+import org.opendaylight.flowManager.impl.utils.MdsalUtils;
+import org.opendaylight.flowManager.impl.utils.NodeUtils;
+import org.opendaylight.flowManager.impl.utils.WriteBehindFlusher;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Uri;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.MacAddress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.OutputActionCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.output.action._case.OutputActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.ActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.ActionKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowAdded;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowRemoved;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.FlowUpdated;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.NodeErrorNotification;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.NodeExperimenterErrorNotification;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowListener;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SwitchFlowRemoved;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowCookie;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowModFlags;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.InstructionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.apply.actions._case.ApplyActionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.Instruction;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorRef;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketProcessingListener;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.packet.service.rev130709.PacketReceived;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Learns the MAC addresses seen in packet-ins and installs a unicast flow towards each of them.
+ *
+ * Packet-ins are dispatched to one worker thread per stripe of switches, so the learning of a given switch
+ * is serialized while different switches are handled in parallel. Each stripe queues its events in a
+ * preallocated ring of primitive arrays, so queuing a packet-in does not allocate, and packet-ins are
+ * dropped when the ring is full, e.g. during a broadcast storm. Each switch gets its own bounded
+ * {@link MacLearningTable}; when an address is evicted or its switch is forgotten, its unicast flow is
+ * removed.
+ * Frames towards unknown, broadcast and multicast destinations keep hitting the flood flows.
+ *
+ * The switch owns the expiry: a unicast flow idles out once no frame was sent to its address for the idle
+ * timeout, and the flow-removed message it sends makes the address forgotten, so the next packet-in from
+ * that address installs the flow again. In case such a message is lost, an address seen again more than
+ * the idle timeout after its flow was installed gets its flow pushed again.
+ */
+public class MacLearningPacketHandler implements PacketProcessingListener, SalFlowListener, AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MacLearningPacketHandler.class);
+    private static final int ETHERNET_HEADER_LENGTH = 14;
+    private static final int ETHERNET_SRC_OFFSET = 6;
+    private static final int L2_UNICAST_PRIORITY = 10;
+    private static final String L2_UNICAST_FLOW_PREFIX = "L2_Mac_";
+    private static final short TABLE_ID = 0;
+    private static final BigInteger L2_COOKIE = BigInteger.valueOf(106);
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int LEARN = 0;
+    private static final int FLOW_REMOVED = 1;
+    private static final int FORGET_NODE = 2;
+
+    private final WriteBehindFlusher flusher;
+    private final SalFlowService salFlowService;
+    private final int tableSize;
+    private final int idleTimeout;
+    private final Stripe[] stripes;
+
+    /**
+     * @param flusher write-behind stage the unicast flows are written through
+     * @param salFlowService openflowplugin flow service, pushes the unicast flows the switch may have lost
+     * @param tableSize maximum number of MAC addresses learned per switch
+     * @param idleTimeout idle timeout of the unicast flows in seconds
+     */
+    public MacLearningPacketHandler(final WriteBehindFlusher flusher, final SalFlowService salFlowService,
+                                    final int tableSize, final int idleTimeout) {
+        this.flusher = flusher;
+        this.salFlowService = salFlowService;
+        this.tableSize = tableSize;
+        this.idleTimeout = idleTimeout;
+        this.stripes = new Stripe[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(i);
+        }
+        LOG.info("MacLearningPacketHandler created with {} workers", stripes.length);
+    }
+
+    @Override
+    public void onPacketReceived(final PacketReceived notification) {
+        final byte[] payload = notification.getPayload();
+        final NodeConnectorRef ingress = notification.getIngress();
+        if (payload == null || payload.length < ETHERNET_HEADER_LENGTH || ingress == null) {
+            return;
+        }
+        // group bit set: multicast or broadcast source, never learned
+        if ((payload[ETHERNET_SRC_OFFSET] & 0x01) != 0) {
+            return;
+        }
+        final NodeConnectorKey ingressKey = ingress.getValue().firstKeyOf(NodeConnector.class, NodeConnectorKey.class);
+        if (ingressKey == null) {
+            return;
+        }
+        final String nodeConnectorId = ingressKey.getId().getValue();
+        final long port = NodeUtils.extractPortNumber(nodeConnectorId);
+        if (port < 0 || !NodeUtils.hasDpid(nodeConnectorId)) {
+            return;
+        }
+        final long dpid = NodeUtils.extractDpid(nodeConnectorId);
+        final long srcMac = readMac(payload, ETHERNET_SRC_OFFSET);
+        stripe(dpid).offer(LEARN, dpid, srcMac, port);
+    }
+
+    @Override
+    public void onSwitchFlowRemoved(final SwitchFlowRemoved notification) {
+        // only the unicast flows are sent with the flow removed flag
+        if (notification.getPriority() == null || notification.getPriority() != L2_UNICAST_PRIORITY
+                || notification.getCookie() == null || !L2_COOKIE.equals(notification.getCookie().getValue())
+                || notification.getMatch() == null || notification.getMatch().getEthernetMatch() == null
+                || notification.getMatch().getEthernetMatch().getEthernetDestination() == null
+                || notification.getNode() == null) {
+            return;
+        }
+        final NodeKey nodeKey = notification.getNode().getValue().firstKeyOf(Node.class, NodeKey.class);
+        if (nodeKey == null || !NodeUtils.hasDpid(nodeKey.getId().getValue())) {
+            return;
+        }
+        final long dpid = NodeUtils.extractDpid(nodeKey.getId().getValue());
+        final long mac = Long.parseLong(notification.getMatch().getEthernetMatch().getEthernetDestination()
+                .getAddress().getValue().replace(":", ""), 16);
+        // when dropped, the address is found stale once seen again
+        stripe(dpid).offer(FLOW_REMOVED, dpid, mac, MacLearningTable.NO_PORT);
+    }
+
+    @Override
+    public void onFlowAdded(final FlowAdded notification) {
+        // not needed
+    }
+
+    @Override
+    public void onFlowRemoved(final FlowRemoved notification) {
+        // not needed
+    }
+
+    @Override
+    public void onFlowUpdated(final FlowUpdated notification) {
+        // not needed
+    }
+
+    @Override
+    public void onNodeErrorNotification(final NodeErrorNotification notification) {
+        // not needed
+    }
+
+    @Override
+    public void onNodeExperimenterErrorNotification(final NodeExperimenterErrorNotification notification) {
+        // not needed
+    }
+
+    /**
+     * Forget everything learned on a switch and delete its unicast flows.
+     * @param dpid the switch datapath id
+     */
+    public void forgetNode(final long dpid) {
+        // never dropped while running, the table would outlive the switch
+        stripe(dpid).put(FORGET_NODE, dpid, 0, MacLearningTable.NO_PORT);
+    }
+
+    @Override
+    public void close() {
+        for (Stripe stripe : stripes) {
+            stripe.close();
+        }
+    }
+
+    private void learn(final LongObjectMap<MacLearningTable> stripeTables, final long dpid, final long mac,
+                       final long port) {
+        MacLearningTable table = stripeTables.get(dpid);
+        if (table == null) {
+            table = new MacLearningTable(tableSize, idleTimeout * 1000L,
+                    (evictedMac, evictedPort) -> removeUnicastFlow(dpid, evictedMac));
+            stripeTables.put(dpid, table);
+        }
+        switch (table.learn(mac, port, System.currentTimeMillis())) {
+            case NEW:
+            case MOVED:
+                writeUnicastFlow(dpid, mac, port, false);
+                break;
+            case STALE:
+                // the datastore still holds the flow the switch lost, the write alone does not reach the switch
+                writeUnicastFlow(dpid, mac, port, true);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void flowRemoved(final LongObjectMap<MacLearningTable> stripeTables, final long dpid, final long mac,
+                             final long now) {
+        final MacLearningTable table = stripeTables.get(dpid);
+        // a flow installed less than the idle timeout ago was not idled out, e.g. the removal of a previous flow
+        if (table != null && table.remove(mac, now - idleTimeout * 1000L)) {
+            LOG.debug("Unicast flow of {} idled out on switch {}", macToString(mac), dpid);
+        }
+    }
+
+    /**
+     * @param push whether to also push the flow to the switch, which happens anyway when the write superseded
+     *             a pending delete of the flow: the datastore then never sees the flow change
+     */
+    private void writeUnicastFlow(final long dpid, final long mac, final long port, final boolean push) {
+        final NodeBuilder nodeBuilder = FlowUtils.createNodeBuilder(dpid);
+        final FlowBuilder flowBuilder = unicastFlow(mac, port);
+        LOG.debug("writeUnicastFlow: node {}, flow {}", dpid, flowBuilder.getFlowName());
+        final boolean supersededDelete = flusher.putOverDelete(LogicalDatastoreType.CONFIGURATION,
+                FlowUtils.createFlowPath(flowBuilder, nodeBuilder), flowBuilder.build());
+        if (push || supersededDelete) {
+            Futures.addCallback(FlowUtils.pushFlow(salFlowService, flowBuilder, nodeBuilder),
+                    new FutureCallback<Void>() {
+                        @Override
+                        public void onSuccess(final Void result) {
+                            LOG.debug("Pushed flow {} to switch {}", flowBuilder.getFlowName(), dpid);
+                        }
+
+                        @Override
+                        public void onFailure(final Throwable throwable) {
+                            LOG.warn("Failed to push flow {} to switch {}", flowBuilder.getFlowName(), dpid,
+                                    throwable);
+                        }
+                    });
+        }
+    }
+
+    private void removeUnicastFlow(final long dpid, final long mac) {
+        final NodeBuilder nodeBuilder = FlowUtils.createNodeBuilder(dpid);
+        final FlowBuilder flowBuilder = FlowUtils.initFlowBuilder(new FlowBuilder(), unicastFlowName(mac), TABLE_ID);
+        LOG.debug("removeUnicastFlow: node {}, flow {}", dpid, flowBuilder.getFlowName());
+        MdsalUtils.delete(this.flusher, LogicalDatastoreType.CONFIGURATION,
+                FlowUtils.createFlowPath(flowBuilder, nodeBuilder));
+    }
+
+    /**
+     * Forward every frame destined to the given MAC address out of the port it was learned on
+     * @param mac destination MAC address
+     * @param port output port
+     * @return FlowBuilder
+     */
+    private FlowBuilder unicastFlow(final long mac, final long port) {
+        final MatchBuilder matchBuilder = MatchUtils.createEthDstMatch(new MatchBuilder(), new MacAddress(macToString(mac)));
+
+        final OutputActionBuilder output = new OutputActionBuilder();
+        output.setOutputNodeConnector(new Uri(Long.toString(port)));
+        output.setMaxLength(60);
+        final ActionBuilder ab = new ActionBuilder();
+        ab.setAction(new OutputActionCaseBuilder().setOutputAction(output.build()).build());
+        ab.setOrder(0);
+        ab.setKey(new ActionKey(0));
+        final List<Action> actionList = Lists.newArrayList(ab.build());
+
+        final InstructionBuilder ib = new InstructionBuilder();
+        ib.setInstruction(new ApplyActionsCaseBuilder()
+                .setApplyActions(new ApplyActionsBuilder().setAction(actionList).build()).build());
+        ib.setOrder(0);
+        ib.setKey(new InstructionKey(0));
+        final List<Instruction> instructions = Lists.newArrayList(ib.build());
+
+        final FlowBuilder flowBuilder = FlowUtils.createFlowBuilder(unicastFlowName(mac), L2_UNICAST_PRIORITY,
+                matchBuilder, TABLE_ID);
+        flowBuilder.setIdleTimeout(idleTimeout);
+        // SEND_FLOW_REM, the switch reports the flow when it idles out
+        flowBuilder.setFlags(new FlowModFlags(false, false, false, false, true));
+        flowBuilder.setCookie(new FlowCookie(L2_COOKIE));
+        flowBuilder.setCookieMask(new FlowCookie(BigInteger.valueOf(255)));
+        flowBuilder.setInstructions(new InstructionsBuilder().setInstruction(instructions).build());
+        return flowBuilder;
+    }
+
+    private static void clearNode(final LongObjectMap<MacLearningTable> stripeTables, final long dpid) {
+        final MacLearningTable table = stripeTables.remove(dpid);
+        if (table != null) {
+            table.clear();
+        }
+    }
+
+    private Stripe stripe(final long dpid) {
+        return stripes[(int) ((dpid ^ (dpid >>> 32)) & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    /**
+     * Worker of a stripe of switches, owning their tables, with a bounded ring of pending events.
+     */
+    private final class Stripe implements Runnable {
+        private final LongObjectMap<MacLearningTable> stripeTables = new LongObjectMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final int[] types = new int[QUEUE_CAPACITY];
+        private final long[] dpids = new long[QUEUE_CAPACITY];
+        private final long[] macs = new long[QUEUE_CAPACITY];
+        private final long[] ports = new long[QUEUE_CAPACITY];
+        private final long[] times = new long[QUEUE_CAPACITY];
+        private final Thread worker;
+        private int head;
+        private int count;
+        private long dropped;
+        private boolean closed;
+
+        Stripe(final int index) {
+            worker = new Thread(this, "flowManager-mac-learning-" + index);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        /**
+         * Queue an event, dropping it when the ring is full.
+         */
+        void offer(final int type, final long dpid, final long mac, final long port) {
+            lock.lock();
+            try {
+                if (count == QUEUE_CAPACITY) {
+                    if (dropped++ % QUEUE_CAPACITY == 0) {
+                        LOG.warn("MAC learning queue of {} full, {} events dropped so far", worker.getName(),
+                                dropped);
+                    }
+                    return;
+                }
+                enqueue(type, dpid, mac, port);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Queue an event, waiting for room in the ring. Gives up once the stripe is closed, nothing drains the
+         * ring anymore.
+         */
+        void put(final int type, final long dpid, final long mac, final long port) {
+            lock.lock();
+            try {
+                while (count == QUEUE_CAPACITY && !closed) {
+                    notFull.awaitUninterruptibly();
+                }
+                if (closed) {
+                    LOG.debug("MAC learning stopped, event of switch {} dropped", dpid);
+                    return;
+                }
+                enqueue(type, dpid, mac, port);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                closed = true;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            worker.interrupt();
+        }
+
+        private void enqueue(final int type, final long dpid, final long mac, final long port) {
+            final int tail = (head + count) % QUEUE_CAPACITY;
+            types[tail] = type;
+            dpids[tail] = dpid;
+            macs[tail] = mac;
+            ports[tail] = port;
+            times[tail] = System.currentTimeMillis();
+            count++;
+            notEmpty.signal();
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                final int type;
+                final long dpid;
+                final long mac;
+                final long port;
+                final long time;
+                lock.lock();
+                try {
+                    while (count == 0) {
+                        notEmpty.await();
+                    }
+                    type = types[head];
+                    dpid = dpids[head];
+                    mac = macs[head];
+                    port = ports[head];
+                    time = times[head];
+                    head = (head + 1) % QUEUE_CAPACITY;
+                    count--;
+                    notFull.signal();
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    if (type == LEARN) {
+                        learn(stripeTables, dpid, mac, port);
+                    } else if (type == FLOW_REMOVED) {
+                        flowRemoved(stripeTables, dpid, mac, time);
+                    } else {
+                        clearNode(stripeTables, dpid);
+                    }
+                } catch (RuntimeException e) {
+                    // never let one event stop the worker
+                    LOG.warn("Failed to handle MAC learning event of switch {}", dpid, e);
+                }
+            }
+        }
+    }
+
+    private static String unicastFlowName(final long mac) {
+        return L2_UNICAST_FLOW_PREFIX + String.format("%012x", mac);
+    }
+
+    private static long readMac(final byte[] payload, final int offset) {
+        long mac = 0;
+        for (int i = offset; i < offset + 6; i++) {
+            mac = (mac << 8) | (payload[i] & 0xFF);
+        }
+        return mac;
+    }
+
+    private static String macToString(final long mac) {
+        final StringBuilder builder = new StringBuilder(17);
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            if (shift != 40) {
+                builder.append(':');
+            }
+            final int octet = (int) (mac >>> shift) & 0xFF;
+            builder.append(Character.forDigit(octet >>> 4, 16)).append(Character.forDigit(octet & 0x0F, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import java.util.Arrays;
+
+/**
+ * Bounded MAC address to port table of a single switch.
+ *
+ * All the entries live in preallocated primitive arrays: a chained hash index on the MAC address and an
+ * intrusive doubly linked list ordered from the most to the least recently seen entry. Learning an
+ * already known address does not allocate. When the table is full the least recently seen entry is
+ * evicted. Entries have no timeout of their own, the owner removes them when their flow goes away; an
+ * entry whose flow was installed longer than the refresh interval ago is reported stale when seen again.
+ *
+ * Not thread safe, a table must only be used by the worker owning its switch.
+ */
+public class MacLearningTable {
+
+    public static final long NO_PORT = -1;
+
+    /** Result of {@link #learn(long, long, long)}. */
+    public enum Learned {
+        UNCHANGED, NEW, MOVED, STALE
+    }
+
+    /**
+     * Notified when an entry leaves the table, either removed or evicted to make room.
+     */
+    public interface EvictionListener {
+        void onEvicted(long mac, long port);
+    }
+
+    private static final int NIL = -1;
+
+    private final EvictionListener evictionListener;
+    private final int capacity;
+    private final long refreshInterval;
+    private final int mask;
+    private final int[] buckets;
+    private final int[] chain;
+    private final long[] macs;
+    private final long[] ports;
+    private final long[] installed;
+    private final int[] newer;
+    private final int[] older;
+    private int newest = NIL;
+    private int oldest = NIL;
+    private int free;
+    private int size;
+
+    /**
+     * @param capacity maximum number of entries
+     * @param refreshInterval milliseconds after which a known entry is reported stale when seen again
+     * @param evictionListener notified of the entries leaving the table, may be null
+     */
+    public MacLearningTable(final int capacity, final long refreshInterval, final EvictionListener evictionListener) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("MAC table capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.refreshInterval = refreshInterval;
+        this.evictionListener = evictionListener;
+        int bucketCount = Integer.highestOneBit(capacity) << 1;
+        this.mask = bucketCount - 1;
+        this.buckets = new int[bucketCount];
+        Arrays.fill(buckets, NIL);
+        this.chain = new int[capacity];
+        this.macs = new long[capacity];
+        this.ports = new long[capacity];
+        this.installed = new long[capacity];
+        this.newer = new int[capacity];
+        this.older = new int[capacity];
+        // free slots are linked through the hash chain array
+        for (int i = 0; i < capacity - 1; i++) {
+            chain[i] = i + 1;
+        }
+        chain[capacity - 1] = NIL;
+        this.free = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the port a MAC address was learned on.
+     * @param mac the MAC address in the 48 low-order bits
+     * @return the port, or {@link #NO_PORT} if the address is unknown
+     */
+    public long lookup(final long mac) {
+        final int slot = find(mac);
+        return slot == NIL ? NO_PORT : ports[slot];
+    }
+
+    /**
+     * Record that a MAC address was seen on a port.
+     * @param mac the MAC address in the 48 low-order bits
+     * @param port the port the address was seen on
+     * @param now current time in milliseconds
+     * @return whether the address is new, moved to another port, or was already known on this port since
+     *         less or more than the refresh interval; but for unchanged the entry counts as installed now
+     */
+    public Learned learn(final long mac, final long port, final long now) {
+        int slot = find(mac);
+        if (slot != NIL) {
+            touch(slot);
+            if (ports[slot] != port) {
+                ports[slot] = port;
+                installed[slot] = now;
+                return Learned.MOVED;
+            }
+            if (now - installed[slot] < refreshInterval) {
+                return Learned.UNCHANGED;
+            }
+            installed[slot] = now;
+            return Learned.STALE;
+        }
+        if (size == capacity) {
+            evict(oldest);
+        }
+        slot = free;
+        free = chain[slot];
+        final int bucket = bucket(mac);
+        macs[slot] = mac;
+        ports[slot] = port;
+        installed[slot] = now;
+        chain[slot] = buckets[bucket];
+        buckets[bucket] = slot;
+        linkNewest(slot);
+        size++;
+        return Learned.NEW;
+    }
+
+    /**
+     * Forget a MAC address, notifying the eviction listener, unless it was installed again since.
+     * @param mac the MAC address in the 48 low-order bits
+     * @param installedBefore time in milliseconds, a more recently installed entry is kept
+     * @return whether the address was removed
+     */
+    public boolean remove(final long mac, final long installedBefore) {
+        final int slot = find(mac);
+        if (slot == NIL || installed[slot] > installedBefore) {
+            return false;
+        }
+        evict(slot);
+        return true;
+    }
+
+    /**
+     * Forget every entry, notifying the eviction listener of each.
+     */
+    public void clear() {
+        while (oldest != NIL) {
+            evict(oldest);
+        }
+    }
+
+    private void evict(final int slot) {
+        final long mac = macs[slot];
+        final long port = ports[slot];
+        final int bucket = bucket(mac);
+        if (buckets[bucket] == slot) {
+            buckets[bucket] = chain[slot];
+        } else {
+            int previous = buckets[bucket];
+            while (chain[previous] != slot) {
+                previous = chain[previous];
+            }
+            chain[previous] = chain[slot];
+        }
+        unlink(slot);
+        chain[slot] = free;
+        free = slot;
+        size--;
+        if (evictionListener != null) {
+            evictionListener.onEvicted(mac, port);
+        }
+    }
+
+    private int find(final long mac) {
+        int slot = buckets[bucket(mac)];
+        while (slot != NIL && macs[slot] != mac) {
+            slot = chain[slot];
+        }
+        return slot;
+    }
+
+    private int bucket(final long mac) {
+        long h = mac * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void touch(final int slot) {
+        if (slot != newest) {
+            unlink(slot);
+            linkNewest(slot);
+        }
+    }
+
+    private void linkNewest(final int slot) {
+        newer[slot] = NIL;
+        older[slot] = newest;
+        if (newest != NIL) {
+            newer[newest] = slot;
+        }
+        newest = slot;
+        if (oldest == NIL) {
+            oldest = slot;
+        }
+    }
+
+    private void unlink(final int slot) {
+        if (newer[slot] != NIL) {
+            older[newer[slot]] = older[slot];
+        } else {
+            newest = older[slot];
+        }
+        if (older[slot] != NIL) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            oldest = newer[slot];
+        }
+    }
+}
@@ -7,7 +7,12 @@
  */
 package org.opendaylight.flowManager.impl;
 
+import com.google.common.base.Function;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
 import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
@@ -21,6 +26,7 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.acti
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowId;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowCookie;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.InstructionsBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
@@ -31,18 +37,25 @@ import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instru
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionKey;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeBuilder;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.NetworkTopology;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.NodeId;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.TopologyId;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.Topology;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.TopologyKey;
 import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.NodeKey;
 import org.opendaylight.yangtools.concepts.ListenerRegistration;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 public class NodeDataTreeChangeListener extends AbstractDataTreeChangeListener<Node> {
@@ -59,11 +72,50 @@ public class NodeDataTreeChangeListener extends AbstractDataTreeChangeListener<N
                 .build();
     }
 
+    /**
+     * @param nodeId id of the node, e.g. openflow:1
+     * @return the InstanceIdentifier of the node in the flow:1 Network Topology
+     */
+    public static InstanceIdentifier<Node> getOFNodeTopologyPath(final String nodeId) {
+        return InstanceIdentifier.builder(NetworkTopology.class)
+                .child(Topology.class, new TopologyKey(OF_TOPOLOGYID))
+                .child(Node.class, new NodeKey(new NodeId(nodeId)))
+                .build();
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(NodeDataTreeChangeListener.class);
+    private static final String CONTROLLER_PORT = "CONTROLLER";
     private final ListenerRegistration<NodeDataTreeChangeListener> listener;
+    private final WriteBehindFlusher flusher;
+    private final SalFlowService salFlowService;
+    private final FlowRefresher flowRefresher;
+    private final MacLearningPacketHandler macLearning;
+    private final PortLiveness portLiveness;
+    private final FlowCompiler flowCompiler = new FlowCompiler();
+    private final TopologyState topology = new TopologyState();
+    private final ReadWriteLock provisioningLock = new ReentrantReadWriteLock();
+    private volatile PortFilterMatcher portFilter;
 
-    public NodeDataTreeChangeListener(final DataBroker dataBroker) {
+    /**
+     * @param dataBroker Mdsal data Broker
+     * @param flusher write-behind stage the flows are written through
+     * @param salFlowService openflowplugin flow service, pushes the flows a switch lost
+     * @param flowRefresher tracker of the hard timeouts of the written flows
+     * @param macLearning handler learning MAC addresses from the flooded frames, null to only flood
+     * @param portLiveness operational state of the ports, down ports are left out of the flood actions
+     * @param portFilter port filter rules in force when the existing nodes are first provisioned
+     */
+    public NodeDataTreeChangeListener(final DataBroker dataBroker, final WriteBehindFlusher flusher,
+                                      final SalFlowService salFlowService, final FlowRefresher flowRefresher,
+                                      final MacLearningPacketHandler macLearning, final PortLiveness portLiveness,
+                                      final PortFilterMatcher portFilter) {
         super(dataBroker);
+        this.flusher = flusher;
+        this.salFlowService = salFlowService;
+        this.flowRefresher = flowRefresher;
+        this.macLearning = macLearning;
+        this.portLiveness = portLiveness;
+        this.portFilter = portFilter;
         final InstanceIdentifier<Node> NodeIid = this.getOFNodesTopologyPath();
         final DataTreeIdentifier<Node> dataTreeIid =
                 new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL, NodeIid);
@@ -75,12 +127,176 @@ public class NodeDataTreeChangeListener extends AbstractDataTreeChangeListener<N
     protected void add(final InstanceIdentifier<Node> identifier, final Node add) throws RuntimeException {
         LOG.info("added node {} ", add.getNodeId().getValue());
         if(NodeUtils.isOpenFlow(add.getNodeId().getValue())) {
+            final SwitchPorts switchPorts = SwitchPorts.fromNode(add);
+            if (switchPorts == null) {
+                LOG.warn("Cannot extract the datapath id of node {}", add.getNodeId().getValue());
+                return;
+            }
             LOG.info("Is an openflow node, configure it:");
-            add.getTerminationPoint().forEach(
-                    terminationPoint -> {
-                        this.addFlow(add, terminationPoint.getKey().getTpId().getValue());
-                    }
-            );
+            topology.put(switchPorts);
+            // do not wait for the flush, so the writes of a burst of new nodes share transactions
+            logFailure(this.addFlows(switchPorts, null), "Failed to configure node {}", switchPorts.getNodeId());
+        }
+    }
+
+    /**
+     * @return the switches currently provisioned by flowManager
+     */
+    public List<SwitchPorts> getProvisionedSwitches() {
+        return topology.snapshot();
+    }
+
+    /**
+     * Push all the flows of a switch again, from its ports as currently found in the topology.
+     * Safe to call concurrently for different switches.
+     * @param dpid datapath id of the switch to reprovision
+     * @return the number of flows pushed and failed
+     * @throws IllegalStateException if the switch left the topology or the push was interrupted
+     */
+    public PushResult reprovision(final long dpid) {
+        final String nodeId = FlowUtils.getNodeName(dpid);
+        // the recorded ports only follow the notifications, read the ones the switch has now
+        final Node node = MdsalUtils.read(dataBroker, LogicalDatastoreType.OPERATIONAL, getOFNodeTopologyPath(nodeId));
+        final SwitchPorts switchPorts = node == null ? null : SwitchPorts.fromNode(node);
+        if (switchPorts == null) {
+            throw new IllegalStateException("Node " + nodeId + " is not in the topology");
+        }
+        final ListenableFuture<PushResult> pushed;
+        provisioningLock.readLock().lock();
+        try {
+            replacePorts(switchPorts);
+            pushed = this.pushFlows(switchPorts, null, true);
+        } finally {
+            provisioningLock.readLock().unlock();
+        }
+        try {
+            return pushed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reprovisioning node " + nodeId, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to push the flows of node " + nodeId
+                    + ": " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Rewrite the flows of a switch whose output actions include one of the given ports, after their
+     * operational state changed.
+     * @param dpid datapath id of the switch
+     * @param changedPorts numbers of the ports whose state changed
+     * @return the number of flows written, failed if a write failed
+     */
+    public ListenableFuture<Integer> patchPorts(final long dpid, final BitSet changedPorts) {
+        final SwitchPorts switchPorts = topology.get(dpid);
+        return switchPorts == null ? Futures.immediateFuture(0)
+                : this.addFlows(switchPorts, (inPort, flowBuilder) -> floodsTo(inPort, changedPorts));
+    }
+
+    /**
+     * Push the given flows of a switch again, after they were found missing or different on the switch.
+     * They are written again first, in case the configuration datastore lost them too, then sent to the
+     * switch directly since an unchanged write never reaches it.
+     * @param dpid datapath id of the switch
+     * @param flowIds ids of the flows to push, ids flowManager no longer expects are ignored
+     * @return the number of flows pushed and failed
+     */
+    public ListenableFuture<PushResult> repairFlows(final long dpid, final Set<String> flowIds) {
+        final SwitchPorts switchPorts = topology.get(dpid);
+        return switchPorts == null ? Futures.immediateFuture(new PushResult(0, 0))
+                : this.pushFlows(switchPorts,
+                        (inPort, flowBuilder) -> flowIds.contains(flowBuilder.getId().getValue()), true);
+    }
+
+    /**
+     * Push the flows of the given ports of a switch again before their hard timeout. The configuration
+     * datastore is left untouched, the flows are only sent to the switch.
+     * @param dpid datapath id of the switch
+     * @param ports in ports of the flows to push, ports flowManager no longer provisions are ignored
+     * @return the number of flows pushed and failed
+     */
+    public ListenableFuture<PushResult> refreshFlows(final long dpid, final Set<Integer> ports) {
+        final SwitchPorts switchPorts = topology.get(dpid);
+        return switchPorts == null ? Futures.immediateFuture(new PushResult(0, 0))
+                : this.pushFlows(switchPorts, (inPort, flowBuilder) -> ports.contains(inPort), false);
+    }
+
+    /**
+     * @param dpid datapath id of the switch
+     * @return the flows flowManager currently expects on the switch, empty if it is not provisioned
+     */
+    public List<FlowBuilder> getExpectedFlows(final long dpid) {
+        final SwitchPorts switchPorts = topology.get(dpid);
+        if (switchPorts == null) {
+            return Collections.emptyList();
+        }
+        provisioningLock.readLock().lock();
+        try {
+            return compileFlows(portFilter.filter(switchPorts));
+        } finally {
+            provisioningLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Apply new port filter rules, reprovisioning only the switches whose included ports changed.
+     * @param newPortFilter the compiled rules
+     */
+    public void setPortFilter(final PortFilterMatcher newPortFilter) {
+        provisioningLock.writeLock().lock();
+        try {
+            applyPortFilter(newPortFilter);
+        } finally {
+            provisioningLock.writeLock().unlock();
+        }
+    }
+
+    private void applyPortFilter(final PortFilterMatcher newPortFilter) {
+        final PortFilterMatcher oldPortFilter = portFilter;
+        portFilter = newPortFilter;
+        topology.snapshot().forEach(switchPorts -> {
+            final SwitchPorts before = oldPortFilter.filter(switchPorts);
+            final SwitchPorts after = newPortFilter.filter(switchPorts);
+            if (!before.equals(after)) {
+                LOG.info("Port filter changed the ports of node {}, reprovision it", switchPorts.getNodeId());
+                deleteRemovedPorts(before, after);
+                logFailure(this.addFlows(switchPorts, null), "Failed to reprovision node {}",
+                        switchPorts.getNodeId());
+            }
+        });
+        // the replaced rules are no longer used, drop what they cached
+        oldPortFilter.clear();
+    }
+
+    /**
+     * Record the ports of a switch and delete the flows of its included ports that went away.
+     * Must hold the provisioning lock.
+     * @return whether the included ports changed, true for a switch not recorded yet
+     */
+    private boolean replacePorts(final SwitchPorts switchPorts) {
+        final SwitchPorts previous = topology.put(switchPorts);
+        if (previous == null) {
+            return true;
+        }
+        final SwitchPorts before = portFilter.filter(previous);
+        final SwitchPorts after = portFilter.filter(switchPorts);
+        if (before.equals(after)) {
+            return false;
+        }
+        deleteRemovedPorts(before, after);
+        return true;
+    }
+
+    /**
+     * Delete the flows of the ports provisioned before and not anymore.
+     */
+    private void deleteRemovedPorts(final SwitchPorts before, final SwitchPorts after) {
+        final NodeBuilder nodeBuilder = FlowUtils.createNodeBuilder(before.getDpid());
+        for (int i = 0; i < before.size(); i++) {
+            if (!after.containsPort(before.getPort(i))) {
+                deleteFlow(before.getPort(i), flowName(before.nodeConnectorId(before.getPort(i))), nodeBuilder,
+                        before.getDpid());
+            }
         }
     }
 
@@ -89,40 +305,281 @@ public class NodeDataTreeChangeListener extends AbstractDataTreeChangeListener<N
         if (listener != null){
             listener.close();
         }
+        flowCompiler.close();
     }
 
     @Override
     protected void remove(final InstanceIdentifier<Node> identifier, final Node del) {
-
+        if (NodeUtils.isOpenFlow(del.getNodeId().getValue()) && NodeUtils.hasDpid(del.getNodeId().getValue())) {
+            final long dpid = NodeUtils.extractDpid(del.getNodeId().getValue());
+            topology.remove(dpid);
+            portFilter.forgetNode(dpid);
+            portLiveness.forgetNode(dpid);
+            flowRefresher.forgetNode(dpid);
+            if (macLearning != null) {
+                macLearning.forgetNode(dpid);
+            }
+        }
     }
 
     @Override
     protected void update(final InstanceIdentifier<Node> identifier, final Node original, final Node update) {
+        if (!NodeUtils.isOpenFlow(update.getNodeId().getValue())) {
+            return;
+        }
+        final SwitchPorts switchPorts = SwitchPorts.fromNode(update);
+        if (switchPorts == null) {
+            LOG.warn("Cannot extract the datapath id of node {}", update.getNodeId().getValue());
+            return;
+        }
+        provisioningLock.readLock().lock();
+        try {
+            // e.g. only port statistics or attributes changed
+            if (replacePorts(switchPorts)) {
+                LOG.info("Ports of node {} changed, reprovision it", switchPorts.getNodeId());
+                logFailure(this.addFlows(switchPorts, null), "Failed to reprovision node {}",
+                        switchPorts.getNodeId());
+            }
+        } finally {
+            provisioningLock.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * Write the flows of a switch. Switches are provisioned concurrently, port filter changes exclusively.
+     * The writes are only queued in the write-behind flusher, the lock is not held until they are committed.
+     * @param selector when not null, only the selected flows are written and the node is left untouched
+     * @return the number of flows written, failed if a write failed
+     */
+    private ListenableFuture<Integer> addFlows(final SwitchPorts switchPorts, final FlowSelector selector) {
+        provisioningLock.readLock().lock();
+        try {
+            NodeBuilder nodeBuilder = FlowUtils.createNodeBuilder(switchPorts.getDpid());
+            PortFlows portFlows = selectFlows(switchPorts, selector);
+            if (portFlows.flows.isEmpty()) {
+                return Futures.immediateFuture(0);
+            }
+            List<ListenableFuture<Void>> writes = Lists.newArrayListWithCapacity(portFlows.flows.size() + 1);
+            if (selector == null) {
+                writes.add(writeNode(nodeBuilder));
+            }
+            for (int i = 0; i < portFlows.flows.size(); i++) {
+                writes.add(writeFlow(portFlows.flows.get(i), nodeBuilder, switchPorts.getDpid(),
+                        portFlows.ports.getPort(i)));
+            }
+            final int written = portFlows.flows.size();
+            return Futures.transform(Futures.allAsList(writes), (Function<List<Void>, Integer>) committed -> written);
+        } finally {
+            provisioningLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Push the flows of a switch to the switch, for the flows the datastore already holds unchanged: writing
+     * them is not sent to the switch.
+     * @param selector when not null, only the selected flows are pushed
+     * @param write whether to write each flow to the datastore before pushing it
+     * @return the number of flows pushed and failed, a failed flow does not fail the future
+     */
+    private ListenableFuture<PushResult> pushFlows(final SwitchPorts switchPorts, final FlowSelector selector,
+                                                   final boolean write) {
+        provisioningLock.readLock().lock();
+        try {
+            final long dpid = switchPorts.getDpid();
+            final NodeBuilder nodeBuilder = FlowUtils.createNodeBuilder(dpid);
+            final PortFlows portFlows = selectFlows(switchPorts, selector);
+            final List<ListenableFuture<Boolean>> pushes = Lists.newArrayListWithCapacity(portFlows.flows.size());
+            for (int i = 0; i < portFlows.flows.size(); i++) {
+                final FlowBuilder flowBuilder = portFlows.flows.get(i);
+                final int port = portFlows.ports.getPort(i);
+                pushes.add(write
+                        ? Futures.transform(writeFlow(flowBuilder, nodeBuilder, dpid, port),
+                                (AsyncFunction<Void, Boolean>) committed ->
+                                        pushFlow(flowBuilder, nodeBuilder, dpid, port))
+                        : pushFlow(flowBuilder, nodeBuilder, dpid, port));
+            }
+            final int selected = portFlows.flows.size();
+            // a failed push is null in the list
+            return Futures.transform(Futures.successfulAsList(pushes), (Function<List<Boolean>, PushResult>)
+                    pushed -> {
+                        final int succeeded = Collections.frequency(pushed, Boolean.TRUE);
+                        return new PushResult(succeeded, selected - succeeded);
+                    });
+        } finally {
+            provisioningLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Filter and compile the flows of a switch. Must hold the provisioning lock.
+     * @param selector when not null, only the selected flows are kept
+     */
+    private PortFlows selectFlows(final SwitchPorts switchPorts, final FlowSelector selector) {
+        SwitchPorts ports = portFilter.filter(switchPorts);
+        if (ports.size() == 0) {
+            LOG.info("No port of node {} to configure", switchPorts.getNodeId());
+            return new PortFlows(ports, Collections.emptyList());
+        }
+        List<FlowBuilder> flowBuilders = compileFlows(ports);
+        if (selector == null) {
+            return new PortFlows(ports, flowBuilders);
+        }
+        boolean[] kept = new boolean[ports.size()];
+        List<FlowBuilder> selected = Lists.newArrayList();
+        for (int i = 0; i < flowBuilders.size(); i++) {
+            kept[i] = selector.select(ports.getPort(i), flowBuilders.get(i));
+            if (kept[i]) {
+                selected.add(flowBuilders.get(i));
+            }
+        }
+        return new PortFlows(ports.retain(kept), selected);
+    }
+
+    /**
+     * Compile the flows of the included ports of a switch, in port index order. Must hold the provisioning lock.
+     */
+    private List<FlowBuilder> compileFlows(final SwitchPorts ports) {
+        if (ports.size() == 0) {
+            return Collections.emptyList();
+        }
+        BitSet downPorts = portLiveness.getDownPorts(ports.getDpid());
+        boolean[] live = new boolean[ports.size()];
+        for (int i = 0; i < live.length; i++) {
+            live[i] = ports.getPort(i) < 0 || !downPorts.get(ports.getPort(i));
+        }
+        return flowCompiler.compile(ports.size(), inPort -> allowAllCommunications(ports, live, inPort));
+    }
+
+    /**
+     * Number of flows pushed to a switch, and failed to.
+     */
+    public static final class PushResult {
+        private final int pushed;
+        private final int failed;
+
+        PushResult(final int pushed, final int failed) {
+            this.pushed = pushed;
+            this.failed = failed;
+        }
+
+        public int getPushed() {
+            return pushed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+    }
+
+    /**
+     * Flows of a switch, the flow at each index being the one of the in port at the same index.
+     */
+    private static final class PortFlows {
+        private final SwitchPorts ports;
+        private final List<FlowBuilder> flows;
+
+        PortFlows(final SwitchPorts ports, final List<FlowBuilder> flows) {
+            this.ports = ports;
+            this.flows = flows;
+        }
+    }
+
+    /**
+     * Selects the flows of a partial rewrite.
+     */
+    private interface FlowSelector {
+        boolean select(int inPort, FlowBuilder flowBuilder);
+    }
+
+    /**
+     * @return whether the flow of the given in port has an output action towards one of the ports
+     */
+    static boolean floodsTo(final int inPort, final BitSet ports) {
+        final int cardinality = ports.cardinality();
+        return cardinality > 1 || (cardinality == 1 && ports.nextSetBit(0) != inPort);
+    }
 
+    private static String flowName(final String terminationPoint) {
+        return "L2_Rule_" + terminationPoint;
     }
 
+    private static void logFailure(final ListenableFuture<Integer> future, final String message, final String nodeId) {
+        Futures.addCallback(future, new FutureCallback<Integer>() {
+            @Override
+            public void onSuccess(final Integer written) {
+                LOG.debug("Wrote {} flows of node {}", written, nodeId);
+            }
 
-    private void addFlow(final Node node, final String terminationPoint) {
-        NodeBuilder nodeBuilder = FlowUtils.createNodeBuilder(node.getNodeId().getValue());
-        FlowBuilder flowBuilder = allowAllCommunications(node, terminationPoint);
-        writeFlow(flowBuilder, nodeBuilder);
+            @Override
+            public void onFailure(final Throwable throwable) {
+                LOG.warn(message, nodeId, throwable);
+            }
+        });
     }
 
-    private void writeFlow(FlowBuilder flowBuilder, NodeBuilder nodeBuilder) {
-        LOG.info("writeFlow: flowBuilder: {}, nodeBuilder: {}", flowBuilder.build(), nodeBuilder.build());
-        MdsalUtils.merge(this.dataBroker, LogicalDatastoreType.CONFIGURATION, FlowUtils.createNodePath(nodeBuilder),
+    private ListenableFuture<Void> writeNode(NodeBuilder nodeBuilder) {
+        return MdsalUtils.merge(this.flusher, LogicalDatastoreType.CONFIGURATION, FlowUtils.createNodePath(nodeBuilder),
                 nodeBuilder.build());
-        MdsalUtils.put(this.dataBroker, LogicalDatastoreType.CONFIGURATION, FlowUtils.createFlowPath(flowBuilder, nodeBuilder),
-                flowBuilder.build());
+    }
+
+    private ListenableFuture<Void> writeFlow(FlowBuilder flowBuilder, NodeBuilder nodeBuilder, long dpid, int port) {
+        LOG.debug("writeFlow: flow: {}, node: {}", flowBuilder.getId().getValue(), nodeBuilder.getId().getValue());
+        ListenableFuture<Void> write = MdsalUtils.put(this.flusher, LogicalDatastoreType.CONFIGURATION,
+                FlowUtils.createFlowPath(flowBuilder, nodeBuilder), flowBuilder.build());
+        // a new flow is added once committed, an existing one is modified and keeps its hard timeout
+        Futures.addCallback(write, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(final Void result) {
+                flowRefresher.written(dpid, port,
+                        flowBuilder.getHardTimeout() == null ? 0 : flowBuilder.getHardTimeout());
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                // reported by the caller
+            }
+        });
+        return write;
+    }
+
+    private ListenableFuture<Boolean> pushFlow(FlowBuilder flowBuilder, NodeBuilder nodeBuilder, long dpid, int port) {
+        ListenableFuture<Void> push = FlowUtils.pushFlow(salFlowService, flowBuilder, nodeBuilder);
+        Futures.addCallback(push, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(final Void result) {
+                // the switch entry starts a new hard timeout
+                flowRefresher.programmed(dpid, port,
+                        flowBuilder.getHardTimeout() == null ? 0 : flowBuilder.getHardTimeout());
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                LOG.warn("Failed to push flow {} to node {}", flowBuilder.getId().getValue(),
+                        nodeBuilder.getId().getValue(), throwable);
+            }
+        });
+        return Futures.transform(push, (Function<Void, Boolean>) pushed -> Boolean.TRUE);
+    }
+
+    private ListenableFuture<Void> deleteFlow(int port, String flowName, NodeBuilder nodeBuilder, long dpid) {
+        LOG.debug("deleteFlow: flow: {}, node: {}", flowName, nodeBuilder.getId().getValue());
+        flowRefresher.removed(dpid, port);
+        FlowBuilder flowBuilder = FlowUtils.initFlowBuilder(new FlowBuilder(), flowName, (short)0);
+        return MdsalUtils.delete(this.flusher, LogicalDatastoreType.CONFIGURATION,
+                FlowUtils.createFlowPath(flowBuilder, nodeBuilder));
     }
 
     /**
-     * Allow all communications for a given terminationPoint with all others
-     * @param node
-     * @param terminationPoint
+     * Allow all communications for a given terminationPoint with all others.
+     * The switch only holds the ports included by the port filter, operationally down ports get no output action.
+     * @param ports ports of the switch
+     * @param live whether each port is operationally up, in port index order
+     * @param inPort index of the port to configure
      * @return FlowBuilder
      */
-    private FlowBuilder allowAllCommunications(final Node node, final String terminationPoint) {
+    private FlowBuilder allowAllCommunications(final SwitchPorts ports, final boolean[] live, final int inPort) {
+        final String terminationPoint = ports.nodeConnectorId(ports.getPort(inPort));
         // set match
         MatchBuilder matchBuilder = new MatchBuilder();
         MatchUtils.createInPortMatch(matchBuilder,  terminationPoint);
@@ -134,21 +591,29 @@ public class NodeDataTreeChangeListener extends AbstractDataTreeChangeListener<N
         ActionBuilder ab = new ActionBuilder();
         List<Action> actionList = Lists.newArrayList();
 
-        final AtomicInteger i = new AtomicInteger();
+        int order = 0;
         // Set output action
-        node.getTerminationPoint().forEach(
-                (terminationPoint1) -> {
-                    if(!terminationPoint.equals(terminationPoint1.getTpId().getValue())) {
-                        OutputActionBuilder output = new OutputActionBuilder();
-                        output.setOutputNodeConnector(new Uri(NodeUtils.extractPort(terminationPoint1.getTpId().getValue())));
-                        output.setMaxLength(60);
-                        ab.setAction(new OutputActionCaseBuilder().setOutputAction(output.build()).build());
-                        ab.setOrder(i.get());
-                        ab.setKey(new ActionKey(i.getAndIncrement()));
-                        actionList.add(ab.build());
-                    }
-                }
-        );
+        for (int port = 0; port < ports.size(); port++) {
+            if (port != inPort && live[port]) {
+                OutputActionBuilder output = new OutputActionBuilder();
+                output.setOutputNodeConnector(new Uri(SwitchPorts.portName(ports.getPort(port))));
+                output.setMaxLength(60);
+                ab.setAction(new OutputActionCaseBuilder().setOutputAction(output.build()).build());
+                ab.setOrder(order);
+                ab.setKey(new ActionKey(order++));
+                actionList.add(ab.build());
+            }
+        }
+        // Send a copy of the flooded frames to the controller so their source MAC gets learned
+        if (macLearning != null) {
+            OutputActionBuilder output = new OutputActionBuilder();
+            output.setOutputNodeConnector(new Uri(CONTROLLER_PORT));
+            output.setMaxLength(60);
+            ab.setAction(new OutputActionCaseBuilder().setOutputAction(output.build()).build());
+            ab.setOrder(order);
+            ab.setKey(new ActionKey(order++));
+            actionList.add(ab.build());
+        }
 
         // Create Apply Actions Instruction
         aab.setAction(actionList);
@@ -161,7 +626,7 @@ public class NodeDataTreeChangeListener extends AbstractDataTreeChangeListener<N
         FlowBuilder flowBuilder = new FlowBuilder();
         // Create Flow
         flowBuilder.setMatch(matchBuilder.build());
-        String flowId = "L2_Rule_" + terminationPoint;
+        String flowId = flowName(terminationPoint);
         flowBuilder.setId(new FlowId(flowId));
         FlowKey key = new FlowKey(new FlowId(flowId));
         flowBuilder.setStrict(false);
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.flowManager.impl.utils.AbstractDataTreeChangeListener;
+import org.opendaylight.flowManager.impl.utils.MdsalUtils;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.PortFilter;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compiles the port filter configuration and hands it to the node listener on every change,
+ * so the rules are applied without restarting the bundle.
+ */
+public class PortFilterDataTreeChangeListener extends AbstractDataTreeChangeListener<PortFilter> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PortFilterDataTreeChangeListener.class);
+    private final ListenerRegistration<PortFilterDataTreeChangeListener> listener;
+    private final NodeDataTreeChangeListener nodeListener;
+
+    public PortFilterDataTreeChangeListener(final DataBroker dataBroker,
+                                            final NodeDataTreeChangeListener nodeListener) {
+        super(dataBroker);
+        this.nodeListener = nodeListener;
+        final DataTreeIdentifier<PortFilter> dataTreeIid = new DataTreeIdentifier<>(
+                LogicalDatastoreType.CONFIGURATION, InstanceIdentifier.create(PortFilter.class));
+        listener = dataBroker.registerDataTreeChangeListener(dataTreeIid, this);
+        LOG.info("PortFilterDataTreeChangeListener created and registered");
+    }
+
+    /**
+     * Read and compile the port filter configuration, e.g. before the nodes are first provisioned.
+     * @param dataBroker Mdsal data Broker
+     * @return the matcher, allowing all ports when there is no or an invalid configuration
+     */
+    public static PortFilterMatcher readPortFilter(final DataBroker dataBroker) {
+        final PortFilter portFilter = MdsalUtils.read(dataBroker, LogicalDatastoreType.CONFIGURATION,
+                InstanceIdentifier.create(PortFilter.class));
+        try {
+            return PortFilterMatcher.compile(portFilter);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid port filter, all ports are included", e);
+            return PortFilterMatcher.ALLOW_ALL;
+        }
+    }
+
+    @Override
+    protected void add(final InstanceIdentifier<PortFilter> identifier, final PortFilter add) {
+        apply(add);
+    }
+
+    @Override
+    protected void update(final InstanceIdentifier<PortFilter> identifier, final PortFilter original,
+                          final PortFilter update) {
+        apply(update);
+    }
+
+    @Override
+    protected void remove(final InstanceIdentifier<PortFilter> identifier, final PortFilter del) {
+        LOG.info("Port filter removed, all ports are included");
+        nodeListener.setPortFilter(PortFilterMatcher.ALLOW_ALL);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (listener != null) {
+            listener.close();
+        }
+    }
+
+    private void apply(final PortFilter portFilter) {
+        final PortFilterMatcher matcher;
+        try {
+            matcher = PortFilterMatcher.compile(portFilter);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid port filter, keeping the previous rules", e);
+            return;
+        }
+        LOG.info("Port filter updated: {}", portFilter);
+        nodeListener.setPortFilter(matcher);
+    }
+}
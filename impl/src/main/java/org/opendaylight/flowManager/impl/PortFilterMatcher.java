@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.collect.Lists;
+import org.opendaylight.flowManager.impl.utils.LongObjectMap;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.PortFilter;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.port.filter.Rule;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Port filter rules compiled once into regular expressions and numeric ranges.
+ *
+ * The rules are evaluated in order and the first rule matching a port decides whether it is included;
+ * ports matched by no rule are included. Node patterns are evaluated once per switch and the rules left
+ * for it are cached by datapath id, the remaining rules are then matched against the port numbers of that
+ * switch; port names are only built for port patterns. The cache entry of a switch is dropped when it
+ * disconnects and the whole cache when the filter is replaced.
+ */
+public final class PortFilterMatcher {
+
+    public static final PortFilterMatcher ALLOW_ALL = new PortFilterMatcher(new CompiledRule[0]);
+
+    private final CompiledRule[] rules;
+    // guarded by itself
+    private final LongObjectMap<CompiledRule[]> nodeRules = new LongObjectMap<>();
+
+    private PortFilterMatcher(final CompiledRule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Compile the port filter configuration.
+     * @param portFilter port filter configuration, may be null
+     * @return the matcher
+     * @throws IllegalArgumentException if a rule pattern or range is invalid
+     */
+    public static PortFilterMatcher compile(final PortFilter portFilter) {
+        if (portFilter == null || portFilter.getRule() == null || portFilter.getRule().isEmpty()) {
+            return ALLOW_ALL;
+        }
+        final List<CompiledRule> compiled = Lists.newArrayListWithCapacity(portFilter.getRule().size());
+        for (Rule rule : portFilter.getRule()) {
+            compiled.add(new CompiledRule(rule));
+        }
+        return new PortFilterMatcher(compiled.toArray(new CompiledRule[compiled.size()]));
+    }
+
+    /**
+     * Keep the ports included by the rules.
+     * @param switchPorts the switch
+     * @return the switch with its included ports only, the same instance if all of them are included
+     */
+    public SwitchPorts filter(final SwitchPorts switchPorts) {
+        if (rules.length == 0) {
+            return switchPorts;
+        }
+        final CompiledRule[] switchRules = rulesFor(switchPorts);
+        final boolean[] included = new boolean[switchPorts.size()];
+        for (int i = 0; i < included.length; i++) {
+            included[i] = includes(switchRules, switchPorts.getPort(i));
+        }
+        return switchPorts.retain(included);
+    }
+
+    /**
+     * Forget the rules cached for a switch, e.g. once it disconnected.
+     * @param dpid switch datapath id
+     */
+    public void forgetNode(final long dpid) {
+        synchronized (nodeRules) {
+            nodeRules.remove(dpid);
+        }
+    }
+
+    /**
+     * Forget the rules cached for every switch, e.g. once replaced by an updated filter.
+     */
+    public void clear() {
+        synchronized (nodeRules) {
+            nodeRules.clear();
+        }
+    }
+
+    /**
+     * @return the number of switches whose rules are cached
+     */
+    int cachedNodes() {
+        synchronized (nodeRules) {
+            return nodeRules.size();
+        }
+    }
+
+    private CompiledRule[] rulesFor(final SwitchPorts switchPorts) {
+        synchronized (nodeRules) {
+            final CompiledRule[] cached = nodeRules.get(switchPorts.getDpid());
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final String nodeId = switchPorts.getNodeId();
+        final List<CompiledRule> matching = Lists.newArrayListWithCapacity(rules.length);
+        for (CompiledRule rule : rules) {
+            if (rule.nodePattern == null || rule.nodePattern.matcher(nodeId).matches()) {
+                matching.add(rule);
+            }
+        }
+        final CompiledRule[] switchRules = matching.toArray(new CompiledRule[matching.size()]);
+        synchronized (nodeRules) {
+            nodeRules.put(switchPorts.getDpid(), switchRules);
+        }
+        return switchRules;
+    }
+
+    private static boolean includes(final CompiledRule[] nodeRules, final int port) {
+        if (nodeRules.length == 0) {
+            return true;
+        }
+        // the port name is only needed by port patterns
+        String portName = null;
+        for (CompiledRule rule : nodeRules) {
+            if (rule.portPattern != null && portName == null) {
+                portName = SwitchPorts.portName(port);
+            }
+            if (rule.matchesPort(portName, port)) {
+                return rule.include;
+            }
+        }
+        return true;
+    }
+
+    private static final class CompiledRule {
+        private final boolean include;
+        private final Pattern nodePattern;
+        private final Pattern portPattern;
+        private final long rangeStart;
+        private final long rangeEnd;
+
+        CompiledRule(final Rule rule) {
+            this.include = rule.getAction() == Rule.Action.Include;
+            try {
+                this.nodePattern = rule.getNodePattern() == null ? null : Pattern.compile(rule.getNodePattern());
+                this.portPattern = rule.getPortPattern() == null ? null : Pattern.compile(rule.getPortPattern());
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid pattern in port filter rule " + rule.getName(), e);
+            }
+            if (rule.getPortRangeStart() == null) {
+                if (rule.getPortRangeEnd() != null) {
+                    throw new IllegalArgumentException("Port filter rule " + rule.getName()
+                            + " has a port-range-end without port-range-start");
+                }
+                this.rangeStart = -1;
+                this.rangeEnd = -1;
+            } else {
+                this.rangeStart = rule.getPortRangeStart();
+                this.rangeEnd = rule.getPortRangeEnd() == null ? rangeStart : rule.getPortRangeEnd();
+                if (rangeEnd < rangeStart) {
+                    throw new IllegalArgumentException("Port filter rule " + rule.getName()
+                            + " has an empty port range");
+                }
+            }
+        }
+
+        boolean matchesPort(final String portName, final int port) {
+            if (rangeStart >= 0 && (port == SwitchPorts.LOCAL
+                    || Integer.toUnsignedLong(port) < rangeStart || Integer.toUnsignedLong(port) > rangeEnd)) {
+                return false;
+            }
+            return portPattern == null || portPattern.matcher(portName).matches();
+        }
+    }
+}
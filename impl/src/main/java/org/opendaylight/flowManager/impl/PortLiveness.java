@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import org.opendaylight.flowManager.impl.utils.LongObjectMap;
+
+import java.util.BitSet;
+
+/**
+ * Operational state of the switch ports, one bitmap of down port numbers per datapath id.
+ *
+ * Ports are live until reported down, so a port whose state is not known yet keeps being flooded.
+ * Reserved ports such as LOCAL are beyond the bitmap range and always live.
+ */
+public class PortLiveness {
+
+    private final LongObjectMap<BitSet> downPorts = new LongObjectMap<>();
+
+    /**
+     * @param dpid switch datapath id
+     * @return a copy of the down ports of the switch
+     */
+    public synchronized BitSet getDownPorts(final long dpid) {
+        final BitSet down = downPorts.get(dpid);
+        return down == null ? new BitSet(0) : (BitSet) down.clone();
+    }
+
+    /**
+     * Record the state of a port.
+     * @param dpid switch datapath id
+     * @param port unsigned openflow port number
+     * @param live whether the port is live
+     * @return whether the state of the port changed
+     */
+    public synchronized boolean setLive(final long dpid, final int port, final boolean live) {
+        if (port < 0) {
+            return false;
+        }
+        BitSet down = downPorts.get(dpid);
+        if (down == null) {
+            if (live) {
+                return false;
+            }
+            down = new BitSet();
+            downPorts.put(dpid, down);
+        }
+        final boolean wasLive = !down.get(port);
+        down.set(port, !live);
+        return wasLive != live;
+    }
+
+    /**
+     * Forget the state of every port of a switch.
+     * @param dpid switch datapath id
+     */
+    public synchronized void forgetNode(final long dpid) {
+        downPorts.remove(dpid);
+    }
+}
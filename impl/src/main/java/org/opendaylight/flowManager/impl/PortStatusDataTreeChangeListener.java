@@ -0,0 +1,243 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.flowManager.impl.utils.AbstractDataTreeChangeListener;
+import org.opendaylight.flowManager.impl.utils.LongObjectMap;
+import org.opendaylight.flowManager.impl.utils.NodeUtils;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnector;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.node.NodeConnectorKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yangtools.concepts.ListenerRegistration;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the operational state of the inventory node connectors and patches the flood flows when
+ * a port goes up or down.
+ *
+ * A state change is only applied once the ports of its node kept their state for the whole damping
+ * interval, so a flapping port does not trigger a rewrite per transition, and a port back to its applied
+ * state by then triggers none. All the pending changes of a node are applied with a single patch of that
+ * node, at the latest twice the damping interval after the first of them, so a port flapping without end
+ * neither holds back the other ports of its node nor gets more than one patch per such period.
+ *
+ * The pending changes of a node are kept as two bitmaps, of the changed ports and of their new state,
+ * and the times of the first and last change. Ports are live until reported down, so only the ports
+ * found down are recorded when the nodes connect.
+ */
+public class PortStatusDataTreeChangeListener extends AbstractDataTreeChangeListener<FlowCapableNodeConnector> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PortStatusDataTreeChangeListener.class);
+    private final ListenerRegistration<PortStatusDataTreeChangeListener> listener;
+    private final PortLiveness portLiveness;
+    private final NodeDataTreeChangeListener nodeListener;
+    private final long dampingInterval;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // guarded by itself
+    private final LongObjectMap<PendingChanges> pending = new LongObjectMap<>();
+
+    /**
+     * @param dataBroker Mdsal data Broker
+     * @param portLiveness port states shared with the node listener
+     * @param nodeListener listener patching the flows of a node
+     * @param dampingInterval milliseconds a port must keep its new state before it is applied
+     */
+    public PortStatusDataTreeChangeListener(final DataBroker dataBroker, final PortLiveness portLiveness,
+                                            final NodeDataTreeChangeListener nodeListener,
+                                            final long dampingInterval) {
+        super(dataBroker);
+        this.portLiveness = portLiveness;
+        this.nodeListener = nodeListener;
+        this.dampingInterval = dampingInterval;
+        final InstanceIdentifier<FlowCapableNodeConnector> path = InstanceIdentifier.builder(Nodes.class)
+                .child(Node.class)
+                .child(NodeConnector.class)
+                .augmentation(FlowCapableNodeConnector.class)
+                .build();
+        final DataTreeIdentifier<FlowCapableNodeConnector> dataTreeIid =
+                new DataTreeIdentifier<>(LogicalDatastoreType.OPERATIONAL, path);
+        listener = dataBroker.registerDataTreeChangeListener(dataTreeIid, this);
+        final long period = Math.max(100, dampingInterval / 2);
+        scheduler.scheduleWithFixedDelay(this::applyStableChanges, period, period, TimeUnit.MILLISECONDS);
+        LOG.info("PortStatusDataTreeChangeListener created and registered");
+    }
+
+    @Override
+    protected void add(final InstanceIdentifier<FlowCapableNodeConnector> identifier,
+                       final FlowCapableNodeConnector add) {
+        if (!isLive(add)) {
+            record(identifier, false);
+        }
+    }
+
+    @Override
+    protected void update(final InstanceIdentifier<FlowCapableNodeConnector> identifier,
+                          final FlowCapableNodeConnector original, final FlowCapableNodeConnector update) {
+        if (isLive(original) != isLive(update)) {
+            record(identifier, isLive(update));
+        }
+    }
+
+    @Override
+    protected void remove(final InstanceIdentifier<FlowCapableNodeConnector> identifier,
+                          final FlowCapableNodeConnector del) {
+        // a removed port is no longer in the topology, only forget its state
+        final String nodeConnectorId = nodeConnectorId(identifier);
+        if (nodeConnectorId != null && NodeUtils.isOpenFlow(nodeConnectorId)) {
+            final long portNumber = NodeUtils.extractPortNumber(nodeConnectorId);
+            if (portNumber < 0 || portNumber > Integer.MAX_VALUE || !NodeUtils.hasDpid(nodeConnectorId)) {
+                return;
+            }
+            final long dpid = NodeUtils.extractDpid(nodeConnectorId);
+            synchronized (pending) {
+                final PendingChanges changes = pending.get(dpid);
+                if (changes != null) {
+                    changes.ports.clear((int) portNumber);
+                }
+            }
+            portLiveness.setLive(dpid, (int) portNumber, true);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        scheduler.shutdownNow();
+        if (listener != null) {
+            listener.close();
+        }
+    }
+
+    private void record(final InstanceIdentifier<FlowCapableNodeConnector> identifier, final boolean live) {
+        final String nodeConnectorId = nodeConnectorId(identifier);
+        if (nodeConnectorId == null || !NodeUtils.isOpenFlow(nodeConnectorId)) {
+            return;
+        }
+        final long portNumber = NodeUtils.extractPortNumber(nodeConnectorId);
+        // reserved ports are beyond the bitmaps and always live
+        if (portNumber < 0 || portNumber > Integer.MAX_VALUE || !NodeUtils.hasDpid(nodeConnectorId)) {
+            return;
+        }
+        LOG.debug("Port {} is {}", nodeConnectorId, live ? "up" : "down");
+        record(NodeUtils.extractDpid(nodeConnectorId), (int) portNumber, live, System.currentTimeMillis());
+    }
+
+    /**
+     * Record a transition of a port, applied once stable.
+     * @param dpid switch datapath id
+     * @param port openflow port number, below 2^31
+     * @param live new state of the port
+     * @param now current time in milliseconds
+     */
+    void record(final long dpid, final int port, final boolean live, final long now) {
+        synchronized (pending) {
+            PendingChanges changes = pending.get(dpid);
+            if (changes == null) {
+                changes = new PendingChanges(now);
+                pending.put(dpid, changes);
+            }
+            changes.ports.set(port);
+            changes.live.set(port, live);
+            changes.lastChange = now;
+        }
+    }
+
+    private void applyStableChanges() {
+        applyStableChanges(System.currentTimeMillis());
+    }
+
+    /**
+     * Apply the pending changes of the nodes whose ports are stable and patch the flows of the ports whose
+     * applied state changed.
+     * @param now current time in milliseconds
+     */
+    void applyStableChanges(final long now) {
+        final LongObjectMap<BitSet> changedPorts = new LongObjectMap<>();
+        final LongObjectMap<PendingChanges> stable = new LongObjectMap<>();
+        synchronized (pending) {
+            pending.forEach((dpid, changes) -> {
+                if (now >= Math.min(changes.lastChange + dampingInterval, changes.firstChange + 2 * dampingInterval)) {
+                    stable.put(dpid, changes);
+                }
+            });
+            stable.forEach((dpid, changes) -> {
+                pending.remove(dpid);
+                final BitSet changed = new BitSet();
+                for (int port = changes.ports.nextSetBit(0); port >= 0; port = changes.ports.nextSetBit(port + 1)) {
+                    if (portLiveness.setLive(dpid, port, changes.live.get(port))) {
+                        changed.set(port);
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    changedPorts.put(dpid, changed);
+                }
+            });
+        }
+        // patch outside the lock, so new transitions keep being recorded meanwhile
+        changedPorts.forEach((dpid, changed) -> {
+            LOG.info("Ports {} of switch {} changed state, patch its flows", changed, dpid);
+            Futures.addCallback(nodeListener.patchPorts(dpid, changed), new FutureCallback<Integer>() {
+                @Override
+                public void onSuccess(final Integer written) {
+                    LOG.debug("Patched {} flows of switch {}", written, dpid);
+                }
+
+                @Override
+                public void onFailure(final Throwable throwable) {
+                    LOG.warn("Failed to patch the flows of switch {}", dpid, throwable);
+                }
+            });
+        });
+    }
+
+    private static String nodeConnectorId(final InstanceIdentifier<FlowCapableNodeConnector> identifier) {
+        final NodeConnectorKey key = identifier.firstKeyOf(NodeConnector.class, NodeConnectorKey.class);
+        return key == null ? null : key.getId().getValue();
+    }
+
+    private static boolean isLive(final FlowCapableNodeConnector nodeConnector) {
+        if (nodeConnector == null) {
+            return false;
+        }
+        if (nodeConnector.getConfiguration() != null
+                && Boolean.TRUE.equals(nodeConnector.getConfiguration().isPORTDOWN())) {
+            return false;
+        }
+        return nodeConnector.getState() == null
+                || !(Boolean.TRUE.equals(nodeConnector.getState().isLinkDown())
+                || Boolean.TRUE.equals(nodeConnector.getState().isBlocked()));
+    }
+
+    /**
+     * Port transitions of a node not applied yet.
+     */
+    private static final class PendingChanges {
+        private final BitSet ports = new BitSet();
+        private final BitSet live = new BitSet();
+        private final long firstChange;
+        private long lastChange;
+
+        PendingChanges(final long firstChange) {
+            this.firstChange = firstChange;
+            this.lastChange = firstChange;
+        }
+    }
+}
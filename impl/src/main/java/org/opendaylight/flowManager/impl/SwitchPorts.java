@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import org.opendaylight.flowManager.impl.utils.FlowUtils;
+import org.opendaylight.flowManager.impl.utils.NodeUtils;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.Node;
+import org.opendaylight.yang.gen.v1.urn.tbd.params.xml.ns.yang.network.topology.rev131021.network.topology.topology.node.TerminationPoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * Compact, immutable view of a switch: its datapath id and the openflow numbers of its ports.
+ *
+ * The datapath id is the raw unsigned 64 bits value, ids of 2^63 and above are negative longs.
+ *
+ * Port numbers are unsigned 32 bits values stored in an {@code int[]}, in termination point order;
+ * the LOCAL port is stored as its reserved number. Node and port ids are only rebuilt as strings when
+ * a flow is written.
+ */
+public final class SwitchPorts {
+
+    /** Reserved openflow number of the LOCAL port (OFPP_LOCAL). */
+    public static final int LOCAL = 0xfffffffe;
+
+    private static final Logger LOG = LoggerFactory.getLogger(SwitchPorts.class);
+    private static final String LOCAL_NAME = "LOCAL";
+
+    private final long dpid;
+    private final int[] ports;
+
+    public SwitchPorts(final long dpid, final int[] ports) {
+        this.dpid = dpid;
+        this.ports = ports;
+    }
+
+    /**
+     * Parse the termination points of a topology node once.
+     * @param node openflow node of the flow:1 topology
+     * @return the switch, or null if the node id is not a numeric openflow id
+     */
+    public static SwitchPorts fromNode(final Node node) {
+        if (!NodeUtils.hasDpid(node.getNodeId().getValue())) {
+            return null;
+        }
+        final long dpid = NodeUtils.extractDpid(node.getNodeId().getValue());
+        if (node.getTerminationPoint() == null) {
+            return new SwitchPorts(dpid, new int[0]);
+        }
+        final int[] ports = new int[node.getTerminationPoint().size()];
+        int count = 0;
+        for (TerminationPoint terminationPoint : node.getTerminationPoint()) {
+            final String port = NodeUtils.extractPort(terminationPoint.getTpId().getValue());
+            final long portNumber = NodeUtils.parsePortNumber(port);
+            if (portNumber >= 0) {
+                ports[count++] = (int) portNumber;
+            } else if (LOCAL_NAME.equals(port)) {
+                ports[count++] = LOCAL;
+            } else {
+                LOG.debug("Ignoring reserved port {}", terminationPoint.getTpId().getValue());
+            }
+        }
+        return new SwitchPorts(dpid, count == ports.length ? ports : Arrays.copyOf(ports, count));
+    }
+
+    public long getDpid() {
+        return dpid;
+    }
+
+    public int size() {
+        return ports.length;
+    }
+
+    /**
+     * @param index port index
+     * @return the unsigned port number
+     */
+    public int getPort(final int index) {
+        return ports[index];
+    }
+
+    public boolean containsPort(final int port) {
+        for (int p : ports) {
+            if (p == port) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Keep the ports whose index is set.
+     * @param keep one flag per port index
+     * @return the switch with the kept ports, this instance if all of them are kept
+     */
+    public SwitchPorts retain(final boolean[] keep) {
+        final int[] kept = new int[ports.length];
+        int count = 0;
+        for (int i = 0; i < ports.length; i++) {
+            if (keep[i]) {
+                kept[count++] = ports[i];
+            }
+        }
+        return count == ports.length ? this : new SwitchPorts(dpid, Arrays.copyOf(kept, count));
+    }
+
+    public String getNodeId() {
+        return FlowUtils.getNodeName(dpid);
+    }
+
+    /**
+     * @param port unsigned port number
+     * @return the port name, as used in output actions
+     */
+    public static String portName(final int port) {
+        return port == LOCAL ? LOCAL_NAME : Integer.toUnsignedString(port);
+    }
+
+    /**
+     * @param port unsigned port number
+     * @return the node connector id, which is also the termination point id
+     */
+    public String nodeConnectorId(final int port) {
+        return port == LOCAL
+                ? FlowUtils.getSpecialNodeConnectorId(dpid, LOCAL_NAME).getValue()
+                : FlowUtils.getNodeConnectorId(dpid, Integer.toUnsignedLong(port)).getValue();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SwitchPorts)) {
+            return false;
+        }
+        final SwitchPorts other = (SwitchPorts) obj;
+        return dpid == other.dpid && Arrays.equals(ports, other.ports);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(dpid) + Arrays.hashCode(ports);
+    }
+
+    @Override
+    public String toString() {
+        return "SwitchPorts{dpid=" + Long.toUnsignedString(dpid) + ", ports=" + ports.length + "}";
+    }
+}
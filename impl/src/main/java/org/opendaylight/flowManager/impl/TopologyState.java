@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.collect.Lists;
+import org.opendaylight.flowManager.impl.utils.LongObjectMap;
+
+import java.util.List;
+
+/**
+ * flowManager's own view of the provisioned switches, keyed by datapath id.
+ *
+ * Keeps one {@link SwitchPorts} per switch instead of the topology {@code Node}, so the heap cost of
+ * a switch is a few hundred bytes and provisioning never parses termination point ids again.
+ */
+public class TopologyState {
+
+    private final LongObjectMap<SwitchPorts> switches = new LongObjectMap<>();
+
+    /**
+     * @return the previous state of the switch, or null
+     */
+    public synchronized SwitchPorts put(final SwitchPorts switchPorts) {
+        return switches.put(switchPorts.getDpid(), switchPorts);
+    }
+
+    public synchronized SwitchPorts get(final long dpid) {
+        return switches.get(dpid);
+    }
+
+    public synchronized SwitchPorts remove(final long dpid) {
+        return switches.remove(dpid);
+    }
+
+    public synchronized int size() {
+        return switches.size();
+    }
+
+    /**
+     * @return the switches at the time of the call
+     */
+    public synchronized List<SwitchPorts> snapshot() {
+        final List<SwitchPorts> snapshot = Lists.newArrayListWithCapacity(switches.size());
+        switches.forEach((dpid, switchPorts) -> snapshot.add(switchPorts));
+        return snapshot;
+    }
+}
@@ -9,7 +9,6 @@
 package org.opendaylight.flowManager.impl.utils;
 
 import org.opendaylight.controller.md.sal.binding.api.DataBroker;
-import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
 import org.opendaylight.controller.md.sal.binding.api.DataTreeChangeListener;
 import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
 import org.opendaylight.yangtools.yang.binding.DataObject;
@@ -33,27 +32,29 @@ public abstract class AbstractDataTreeChangeListener<D extends DataObject>
 
     @Override
     public void onDataTreeChanged(final Collection<DataTreeModification<D>> changes) {
-        for (final DataTreeModification<D> change : changes) {
-            final InstanceIdentifier<D> identifier = change.getRootPath().getRootIdentifier();
-            final DataObjectModification<D> root = change.getRootNode();
-            switch (root.getModificationType()) {
-                case DELETE:
-                    remove(identifier, root.getDataBefore());
-                    break;
-                case SUBTREE_MODIFIED:
-                    update(identifier, root.getDataBefore(), root.getDataAfter());
-                    break;
-                case WRITE:
-                    if (root.getDataBefore() == null) {
-                        add(identifier, root.getDataAfter());
-                    } else {
-                        update(identifier, root.getDataBefore(), root.getDataAfter());
-                    }
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unhandled modification type "
-                            + root.getModificationType());
-            }
+        final DataTreeChangeBatch<D> batch = DataTreeChangeBatch.fold(changes);
+        if (!batch.isEmpty()) {
+            onBatch(batch);
+        }
+    }
+
+    /**
+     * Method handles the net changes of one notification. Multiple modifications of a path
+     * are already folded into one and modifications leaving the data unchanged are dropped.
+     * By default every change is dispatched to {@link #remove}, {@link #update} and {@link #add},
+     * subclasses may override it to handle the whole batch at once.
+     *
+     * @param batch - the net removes, updates and adds
+     */
+    protected void onBatch(final DataTreeChangeBatch<D> batch) {
+        for (final DataTreeChangeBatch.Change<D> change : batch.getRemoved()) {
+            remove(change.getIdentifier(), change.getDataBefore());
+        }
+        for (final DataTreeChangeBatch.Change<D> change : batch.getUpdated()) {
+            update(change.getIdentifier(), change.getDataBefore(), change.getDataAfter());
+        }
+        for (final DataTreeChangeBatch.Change<D> change : batch.getAdded()) {
+            add(change.getIdentifier(), change.getDataAfter());
         }
     }
 
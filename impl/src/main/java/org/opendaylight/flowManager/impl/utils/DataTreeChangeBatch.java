@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2016 Noviflow and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.flowManager.impl.utils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification.ModificationType;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Net effect of a collection of data tree modifications.
+ *
+ * Modifications of the same path are folded into one, from the data before the first of them to the
+ * data after the last of them. Paths whose data ends up unchanged, such as a WRITE of identical data
+ * or an add followed by a delete, are dropped. A path deleted then written again, e.g. a node
+ * reconnecting quickly, stays a remove followed by an add rather than an update.
+ * @param <D> - Class inherited from {@link DataObject} listened in the Datastore.
+ */
+public final class DataTreeChangeBatch<D extends DataObject> {
+
+    /**
+     * Net change of one path.
+     * @param <D> - Class inherited from {@link DataObject} listened in the Datastore.
+     */
+    public static final class Change<D extends DataObject> {
+        private final InstanceIdentifier<D> identifier;
+        private final D dataBefore;
+        private D dataAfter;
+        private boolean writesOnly;
+        private boolean deleted;
+
+        private Change(final InstanceIdentifier<D> identifier, final D dataBefore) {
+            this.identifier = identifier;
+            this.dataBefore = dataBefore;
+            this.writesOnly = true;
+        }
+
+        private Change(final InstanceIdentifier<D> identifier, final D dataBefore, final D dataAfter) {
+            this(identifier, dataBefore);
+            this.dataAfter = dataAfter;
+        }
+
+        public InstanceIdentifier<D> getIdentifier() {
+            return identifier;
+        }
+
+        /**
+         * @return the data before the batch, null for an add
+         */
+        public D getDataBefore() {
+            return dataBefore;
+        }
+
+        /**
+         * @return the data after the batch, null for a remove
+         */
+        public D getDataAfter() {
+            return dataAfter;
+        }
+    }
+
+    private final List<Change<D>> added;
+    private final List<Change<D>> updated;
+    private final List<Change<D>> removed;
+
+    private DataTreeChangeBatch(final List<Change<D>> added, final List<Change<D>> updated,
+                                final List<Change<D>> removed) {
+        this.added = added;
+        this.updated = updated;
+        this.removed = removed;
+    }
+
+    /**
+     * Fold modifications into their net changes, keeping the order in which the paths were first modified.
+     * @param changes the modifications, as received by the listener
+     * @param <D> the data object type
+     * @return the batch
+     * @throws IllegalArgumentException on an unhandled modification type
+     */
+    public static <D extends DataObject> DataTreeChangeBatch<D> fold(
+            final Collection<DataTreeModification<D>> changes) {
+        final Map<InstanceIdentifier<D>, Change<D>> folded = Maps.newLinkedHashMap();
+        for (final DataTreeModification<D> change : changes) {
+            final InstanceIdentifier<D> identifier = change.getRootPath().getRootIdentifier();
+            final DataObjectModification<D> root = change.getRootNode();
+            final ModificationType type = root.getModificationType();
+            if (type != ModificationType.DELETE && type != ModificationType.SUBTREE_MODIFIED
+                    && type != ModificationType.WRITE) {
+                throw new IllegalArgumentException("Unhandled modification type " + type);
+            }
+            Change<D> net = folded.get(identifier);
+            if (net == null) {
+                net = new Change<>(identifier, root.getDataBefore());
+                folded.put(identifier, net);
+            }
+            net.dataAfter = type == ModificationType.DELETE ? null : root.getDataAfter();
+            net.writesOnly &= type != ModificationType.SUBTREE_MODIFIED;
+            net.deleted |= type == ModificationType.DELETE;
+        }
+
+        final List<Change<D>> added = Lists.newArrayList();
+        final List<Change<D>> updated = Lists.newArrayList();
+        final List<Change<D>> removed = Lists.newArrayList();
+        for (final Change<D> net : folded.values()) {
+            if (net.dataBefore == null) {
+                if (net.dataAfter != null) {
+                    added.add(net);
+                }
+            } else if (net.dataAfter == null) {
+                removed.add(net);
+            } else if (net.deleted) {
+                // the data went away in between, its listeners must see it go and come back
+                removed.add(new Change<>(net.identifier, net.dataBefore, null));
+                added.add(new Change<>(net.identifier, null, net.dataAfter));
+            } else if (!net.writesOnly || !isSame(net.dataBefore, net.dataAfter)) {
+                // a subtree modification always changes something, only writes may rewrite identical data
+                updated.add(net);
+            }
+        }
+        return new DataTreeChangeBatch<>(added, updated, removed);
+    }
+
+    private static boolean isSame(final DataObject before, final DataObject after) {
+        return before == after || before.equals(after);
+    }
+
+    public List<Change<D>> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    public List<Change<D>> getUpdated() {
+        return Collections.unmodifiableList(updated);
+    }
+
+    public List<Change<D>> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && updated.isEmpty() && removed.isEmpty();
+    }
+}
@@ -8,23 +8,34 @@
 package org.opendaylight.flowManager.impl.utils;
 
 import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.JdkFutureAdapters;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
 import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowCapableNode;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowTableRef;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableKey;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.AddFlowOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.service.rev130819.SalFlowService;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.FlowRef;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeRef;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
 import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.opendaylight.yangtools.yang.common.RpcResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,7 +46,8 @@ public class FlowUtils {
     private static final String OPENFLOW = "openflow";
 
     public static String getNodeName(long dpidLong) {
-        return OPENFLOW + ":" + dpidLong;
+        // datapath ids are unsigned 64 bits
+        return OPENFLOW + ":" + Long.toUnsignedString(dpidLong);
     }
 
     public static NodeConnectorId getNodeConnectorId(long ofPort, String nodeName) {
@@ -110,6 +122,28 @@ public class FlowUtils {
         return null;
     }
 
+    /**
+     * Send a flow straight to the switch as an OpenFlow ADD. Unlike a datastore write of unchanged data, it
+     * always reaches the switch: an entry with the same match and priority is replaced in place, without
+     * any gap in forwarding, and its timeouts start over.
+     * @param salFlowService the openflowplugin flow service
+     * @param flowBuilder the flow, as written in the configuration datastore
+     * @param nodeBuilder the switch
+     * @return a future completed once the switch accepted the flow
+     */
+    public static ListenableFuture<Void> pushFlow(SalFlowService salFlowService, FlowBuilder flowBuilder,
+                                                  NodeBuilder nodeBuilder) {
+        final AddFlowInputBuilder input = new AddFlowInputBuilder(flowBuilder.build())
+                .setNode(new NodeRef(createNodePath(nodeBuilder)))
+                .setFlowTable(new FlowTableRef(createTablePath(nodeBuilder, flowBuilder.getTableId())))
+                .setFlowRef(new FlowRef(createFlowPath(flowBuilder, nodeBuilder)));
+        return Futures.transform(JdkFutureAdapters.listenInPoolThread(salFlowService.addFlow(input.build())),
+                (AsyncFunction<RpcResult<AddFlowOutput>, Void>) result -> result.isSuccessful()
+                        ? Futures.<Void>immediateFuture(null)
+                        : Futures.<Void>immediateFailedFuture(new IllegalStateException("Failed to add flow "
+                                + flowBuilder.getId().getValue() + ": " + result.getErrors())));
+    }
+
     public static FlowBuilder getPipelineFlow(short table, short gotoTable) {
         FlowBuilder flowBuilder = new FlowBuilder();
         flowBuilder.setMatch(new MatchBuilder().build());
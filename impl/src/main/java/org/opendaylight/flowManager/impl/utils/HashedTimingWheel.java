@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2016 Inocybe Technologies. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hashed timing wheel holding a large number of deadlines at constant cost per schedule and cancel.
+ *
+ * Time is cut in ticks of {@code tickDuration} milliseconds and the wheel has a power of two number of
+ * buckets, each an intrusive doubly linked list of the timeouts falling on that bucket. A deadline beyond
+ * one turn of the wheel keeps a count of the turns left before it is due. Timeouts only fire when the
+ * owner calls {@link #advance(long, Visitor)}, with a tick resolution. Besides its payload, a timeout carries
+ * a primitive key, so owners of many deadlines can share one payload instead of allocating one per
+ * deadline. Not thread safe.
+ * @param <T> the payload type
+ */
+public class HashedTimingWheel<T> {
+
+    /** Consumer of the expired payloads. */
+    public interface Visitor<T> {
+        void visit(T payload, long key);
+    }
+
+    /** Handle of a scheduled deadline. */
+    public static final class Timeout<T> {
+        private final T payload;
+        private final long key;
+        private final long deadline;
+        private long remainingRounds;
+        private int bucket = -1;
+        private Timeout<T> previous;
+        private Timeout<T> next;
+
+        private Timeout(final T payload, final long key, final long deadline) {
+            this.payload = payload;
+            this.key = key;
+            this.deadline = deadline;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * @return whether the timeout neither fired nor was cancelled
+         */
+        public boolean isPending() {
+            return bucket >= 0;
+        }
+    }
+
+    private final Timeout<T>[] buckets;
+    private final int mask;
+    private final long tickDuration;
+    private final long startTime;
+    private long tick;
+    private int size;
+
+    /**
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     * @param tickDuration milliseconds per tick
+     * @param now current time in milliseconds, the origin of the ticks
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(final int ticksPerWheel, final long tickDuration, final long now) {
+        if (ticksPerWheel <= 0 || tickDuration <= 0) {
+            throw new IllegalArgumentException("Invalid timing wheel " + ticksPerWheel + " x " + tickDuration);
+        }
+        final int bucketCount = ticksPerWheel == 1 ? 1 : Integer.highestOneBit(ticksPerWheel - 1) << 1;
+        this.buckets = new Timeout[bucketCount];
+        this.mask = bucketCount - 1;
+        this.tickDuration = tickDuration;
+        this.startTime = now;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param payload the payload handed back when the deadline expires
+     * @param deadline time in milliseconds, a past deadline expires on the next tick
+     * @return the handle to cancel the timeout
+     */
+    public Timeout<T> schedule(final T payload, final long deadline) {
+        return schedule(payload, 0, deadline);
+    }
+
+    /**
+     * @param payload the payload handed back when the deadline expires
+     * @param key the key handed back with the payload
+     * @param deadline time in milliseconds, a past deadline expires on the next tick
+     * @return the handle to cancel the timeout
+     */
+    public Timeout<T> schedule(final T payload, final long key, final long deadline) {
+        final Timeout<T> timeout = new Timeout<>(payload, key, deadline);
+        final long dueTick = Math.max(tick, (deadline - startTime) / tickDuration);
+        timeout.remainingRounds = (dueTick - tick) / buckets.length;
+        timeout.bucket = (int) (dueTick & mask);
+        timeout.next = buckets[timeout.bucket];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        buckets[timeout.bucket] = timeout;
+        size++;
+        return timeout;
+    }
+
+    /**
+     * @param timeout a handle returned by this wheel
+     * @return whether the timeout was still pending
+     */
+    public boolean cancel(final Timeout<T> timeout) {
+        if (!timeout.isPending()) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    /**
+     * Expire every timeout whose tick ended before the given time.
+     * @param now current time in milliseconds
+     * @param expired notified of each expired payload and its key, may schedule and cancel timeouts
+     */
+    public void advance(final long now, final Visitor<T> expired) {
+        final List<Timeout<T>> due = new ArrayList<>();
+        while (startTime + (tick + 1) * tickDuration <= now) {
+            Timeout<T> timeout = buckets[(int) (tick & mask)];
+            tick++;
+            while (timeout != null) {
+                final Timeout<T> next = timeout.next;
+                if (timeout.remainingRounds <= 0) {
+                    unlink(timeout);
+                    due.add(timeout);
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+            // notify once the bucket is walked, the visitor may change it
+            due.forEach(expiredTimeout -> expired.visit(expiredTimeout.payload, expiredTimeout.key));
+            due.clear();
+        }
+    }
+
+    private void unlink(final Timeout<T> timeout) {
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.bucket = -1;
+        size--;
+    }
+}
@@ -7,8 +7,11 @@
  */
 package org.opendaylight.flowManager.impl.utils;
 
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.yang.types.rev130715.MacAddress;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
 import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.ethernet.match.fields.EthernetDestinationBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.model.match.types.rev131026.match.EthernetMatchBuilder;
 
 /**
  * Created by matthieu on 2017-03-24.
@@ -43,4 +46,17 @@ public class MatchUtils {
         matchBuilder.setInPort(ncid);
         return matchBuilder;
     }
+
+    /**
+     * Create Ethernet Destination Match
+     * @param matchBuilder MatchBuilder Object without a match yet
+     * @param dstMac destination MAC address
+     * @return matchBuilder MatchBuilder Object with a match
+     */
+    public static MatchBuilder createEthDstMatch(final MatchBuilder matchBuilder, final MacAddress dstMac) {
+        final EthernetMatchBuilder ethernetMatch = new EthernetMatchBuilder();
+        ethernetMatch.setEthernetDestination(new EthernetDestinationBuilder().setAddress(dstMac).build());
+        matchBuilder.setEthernetMatch(ethernetMatch.build());
+        return matchBuilder;
+    }
 }
@@ -22,6 +22,7 @@ import com.google.common.base.Optional;
 import com.google.common.util.concurrent.CheckedFuture;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
 /**
  * MdsalUtils manages all the mdsal data operation delete, merger, put and read.
@@ -133,6 +134,50 @@ public class MdsalUtils {
         return result;
     }
 
+    /**
+     * Hands a delete to a write-behind flusher.
+     *
+     * @param flusher the flusher batching the operation
+     * @param store {@link LogicalDatastoreType} which should be modified
+     * @param path {@link InstanceIdentifier} to delete
+     * @param <D> the data object type
+     * @return a future completed once the delete is committed
+     */
+    public static <D extends DataObject> ListenableFuture<Void> delete(
+            final WriteBehindFlusher flusher, final LogicalDatastoreType store, final InstanceIdentifier<D> path) {
+        return flusher.delete(store, path);
+    }
+
+    /**
+     * Hands a merge to a write-behind flusher.
+     *
+     * @param flusher the flusher batching the operation
+     * @param logicalDatastoreType {@link LogicalDatastoreType} which should be modified
+     * @param path {@link InstanceIdentifier} for path to write
+     * @param <D> the data object type
+     * @return a future completed once the merge is committed
+     */
+    public static <D extends DataObject> ListenableFuture<Void> merge(
+            final WriteBehindFlusher flusher, final LogicalDatastoreType logicalDatastoreType,
+            final InstanceIdentifier<D> path, final D data) {
+        return flusher.merge(logicalDatastoreType, path, data);
+    }
+
+    /**
+     * Hands a put to a write-behind flusher.
+     *
+     * @param flusher the flusher batching the operation
+     * @param logicalDatastoreType {@link LogicalDatastoreType} which should be modified
+     * @param path {@link InstanceIdentifier} for path to write
+     * @param <D> the data object type
+     * @return a future completed once the put is committed
+     */
+    public static <D extends DataObject> ListenableFuture<Void> put(
+            final WriteBehindFlusher flusher, final LogicalDatastoreType logicalDatastoreType,
+            final InstanceIdentifier<D> path, final D data) {
+        return flusher.put(logicalDatastoreType, path, data);
+    }
+
     /**
      * Executes read as a blocking transaction.
      *
@@ -19,6 +19,7 @@ public class NodeUtils {
     private static final int OPENFLOW_PORT_INDEX = 2;
     private static final int OPENFLOW_PREFIX_INDEX = 0;
     private static final String OPENFLOW_NAME = "openflow";
+    private static final String MAX_DPID = Long.toUnsignedString(-1L);
 
 
     public static String extractNodeId(final String nodeConnectorId) {
@@ -37,6 +38,86 @@ public class NodeUtils {
         return split.get(OPENFLOW_PORT_INDEX);
     }
 
+    /**
+     * @param id openflow node id ("openflow:1") or node connector id ("openflow:1:2")
+     * @return whether the id holds a numeric datapath id, unsigned 64 bits
+     */
+    public static boolean hasDpid(final String id) {
+        final int start = id.indexOf(':') + 1;
+        final int end = dpidEnd(id, start);
+        if (start <= 0 || start >= end) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            final char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        // the longest unsigned 64 bits value has 20 digits, only compare the digits of longer ids
+        return end - start < 20 || (end - start == 20 && id.substring(start, end).compareTo(MAX_DPID) <= 0);
+    }
+
+    /**
+     * Extract the datapath id of an openflow node or node connector id without splitting the string.
+     * Datapath ids are unsigned, ids of 2^63 and above are returned as negative values and must be
+     * formatted with {@link Long#toUnsignedString(long)}.
+     * @param id openflow node id ("openflow:1") or node connector id ("openflow:1:2")
+     * @return the datapath id
+     * @throws NumberFormatException if the id does not hold a numeric datapath id, see {@link #hasDpid(String)}
+     */
+    public static long extractDpid(final String id) {
+        if (!hasDpid(id)) {
+            throw new NumberFormatException("Not a numeric openflow id: " + id);
+        }
+        final int start = id.indexOf(':') + 1;
+        final int end = dpidEnd(id, start);
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            // wraps around past 2^63, which is the unsigned representation
+            result = result * 10 + (id.charAt(i) - '0');
+        }
+        return result;
+    }
+
+    private static int dpidEnd(final String id, final int start) {
+        final int end = id.indexOf(':', start);
+        return end < 0 ? id.length() : end;
+    }
+
+    /**
+     * Extract the openflow port number of a node connector id without splitting the string.
+     * @param nodeConnectorId openflow node connector id ("openflow:1:2")
+     * @return the port number, or -1 for reserved ports such as LOCAL
+     */
+    public static long extractPortNumber(final String nodeConnectorId) {
+        return parseUnsigned(nodeConnectorId, nodeConnectorId.lastIndexOf(':') + 1, nodeConnectorId.length());
+    }
+
+    /**
+     * Parse an openflow port name.
+     * @param port port name, as in the node connector id ("2", "LOCAL")
+     * @return the port number, or -1 for reserved ports such as LOCAL
+     */
+    public static long parsePortNumber(final String port) {
+        return parseUnsigned(port, 0, port.length());
+    }
+
+    private static long parseUnsigned(final String value, final int start, final int end) {
+        if (start < 0 || start >= end) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
     public static boolean isOpenFlow(final String nodeID) {
         final List<String> split = Arrays.asList(nodeID.split(":"));
         return split.get(OPENFLOW_PREFIX_INDEX).equals(OPENFLOW_NAME);
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2016 Inocybe Technologies. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl.utils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yangtools.yang.binding.DataObject;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind stage aggregating puts, merges and deletes from many callers into shared transactions.
+ *
+ * Operations are buffered and submitted as one transaction when the buffer holds {@code maxOperations}
+ * operations or {@code maxDelay} milliseconds after the first buffered operation, whichever comes first.
+ * A put or delete supersedes the buffered operations on the same path, whose callers are signalled with
+ * it. Each caller gets its own future; when a transaction spanning several nodes fails, it is split per
+ * inventory node and every node is retried in its own transaction, so one bad node only fails its own
+ * callers.
+ *
+ * Batches are committed one at a time in the order they were cut, the next one is only submitted once the
+ * previous one, retries included, completed. A later operation on a path therefore always lands after an
+ * earlier one, and operations keep buffering into the next batch meanwhile. Operations handed in after
+ * {@link #close()} fail.
+ */
+public class WriteBehindFlusher implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindFlusher.class);
+
+    private enum OperationType {
+        PUT, MERGE, DELETE
+    }
+
+    private static final class Operation {
+        private final OperationType type;
+        private final LogicalDatastoreType store;
+        private final InstanceIdentifier<?> path;
+        private final DataObject data;
+        private final List<SettableFuture<Void>> callers = Lists.newArrayListWithCapacity(1);
+        private boolean supersededDelete;
+
+        Operation(final OperationType type, final LogicalDatastoreType store, final InstanceIdentifier<?> path,
+                  final DataObject data) {
+            this.type = type;
+            this.store = store;
+            this.path = path;
+            this.data = data;
+        }
+
+        @SuppressWarnings("unchecked")
+        void apply(final WriteTransaction transaction) {
+            final InstanceIdentifier<DataObject> dataPath = (InstanceIdentifier<DataObject>) path;
+            switch (type) {
+                case PUT:
+                    transaction.put(store, dataPath, data, true);
+                    break;
+                case MERGE:
+                    transaction.merge(store, dataPath, data, true);
+                    break;
+                case DELETE:
+                    transaction.delete(store, path);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unhandled operation type " + type);
+            }
+        }
+
+        Object nodeKey() {
+            final NodeKey key = path.firstKeyOf(Node.class, NodeKey.class);
+            return key == null ? path : key;
+        }
+    }
+
+    private final DataBroker dataBroker;
+    private final int maxOperations;
+    private final long maxDelay;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // guarded by this
+    private List<Operation> buffer = Lists.newArrayList();
+    private Map<Object, Operation> lastOperations = Maps.newHashMap();
+    private final Deque<List<Operation>> batches = new ArrayDeque<>();
+    private long generation;
+    private boolean submitting;
+    private boolean closed;
+
+    /**
+     * @param dataBroker Mdsal data Broker
+     * @param maxOperations number of buffered operations triggering a flush
+     * @param maxDelay milliseconds an operation may wait in the buffer
+     */
+    public WriteBehindFlusher(final DataBroker dataBroker, final int maxOperations, final long maxDelay) {
+        this.dataBroker = dataBroker;
+        this.maxOperations = Math.max(1, maxOperations);
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Buffer a put.
+     *
+     * @param store {@link LogicalDatastoreType} which should be modified
+     * @param path {@link InstanceIdentifier} for path to write
+     * @param data the data object
+     * @param <D> the data object type
+     * @return a future completed once the put is committed
+     */
+    public <D extends DataObject> ListenableFuture<Void> put(final LogicalDatastoreType store,
+                                                             final InstanceIdentifier<D> path, final D data) {
+        return enqueue(new Operation(OperationType.PUT, store, path, data));
+    }
+
+    /**
+     * Buffer a put, telling whether it superseded a buffered delete of the same path. The datastore then
+     * never sees the path go away, so a put of the data it still holds is not applied to the switch.
+     *
+     * @param store {@link LogicalDatastoreType} which should be modified
+     * @param path {@link InstanceIdentifier} for path to write
+     * @param data the data object
+     * @param <D> the data object type
+     * @return whether a buffered delete of the path was superseded
+     */
+    public <D extends DataObject> boolean putOverDelete(final LogicalDatastoreType store,
+                                                        final InstanceIdentifier<D> path, final D data) {
+        final Operation operation = new Operation(OperationType.PUT, store, path, data);
+        enqueue(operation);
+        synchronized (this) {
+            return operation.supersededDelete;
+        }
+    }
+
+    /**
+     * Buffer a merge.
+     *
+     * @param store {@link LogicalDatastoreType} which should be modified
+     * @param path {@link InstanceIdentifier} for path to write
+     * @param data the data object
+     * @param <D> the data object type
+     * @return a future completed once the merge is committed
+     */
+    public <D extends DataObject> ListenableFuture<Void> merge(final LogicalDatastoreType store,
+                                                               final InstanceIdentifier<D> path, final D data) {
+        return enqueue(new Operation(OperationType.MERGE, store, path, data));
+    }
+
+    /**
+     * Buffer a delete.
+     *
+     * @param store {@link LogicalDatastoreType} which should be modified
+     * @param path {@link InstanceIdentifier} to delete
+     * @param <D> the data object type
+     * @return a future completed once the delete is committed
+     */
+    public <D extends DataObject> ListenableFuture<Void> delete(final LogicalDatastoreType store,
+                                                                final InstanceIdentifier<D> path) {
+        return enqueue(new Operation(OperationType.DELETE, store, path, null));
+    }
+
+    /**
+     * Cut the buffered operations into a batch, submitted once the batches cut before it completed.
+     */
+    public void flush() {
+        synchronized (this) {
+            cutBatch();
+        }
+        submitNextBatch();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdownNow();
+        flush();
+    }
+
+    private ListenableFuture<Void> enqueue(final Operation operation) {
+        final SettableFuture<Void> future = SettableFuture.create();
+        operation.callers.add(future);
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                return Futures.immediateFailedFuture(new IllegalStateException("WriteBehindFlusher is closed"));
+            }
+            final List<Object> pathKey = Lists.newArrayList(operation.store, operation.path);
+            if (operation.type != OperationType.MERGE) {
+                // a put or delete fully determines the subtree, the previous operation on the path is moot
+                final Operation superseded = lastOperations.get(pathKey);
+                if (superseded != null && buffer.remove(superseded)) {
+                    operation.callers.addAll(superseded.callers);
+                    operation.supersededDelete = superseded.type == OperationType.DELETE;
+                }
+            }
+            lastOperations.put(pathKey, operation);
+            buffer.add(operation);
+            if (buffer.size() == 1 && maxOperations > 1) {
+                final long scheduledGeneration = generation;
+                scheduler.schedule(() -> flushGeneration(scheduledGeneration), maxDelay, TimeUnit.MILLISECONDS);
+            }
+            full = buffer.size() >= maxOperations;
+        }
+        if (full) {
+            flush();
+        }
+        return future;
+    }
+
+    private void flushGeneration(final long scheduledGeneration) {
+        synchronized (this) {
+            // the buffer this timer was armed for was already cut by size
+            if (scheduledGeneration == generation) {
+                cutBatch();
+            }
+        }
+        submitNextBatch();
+    }
+
+    // guarded by this
+    private void cutBatch() {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        batches.add(buffer);
+        buffer = Lists.newArrayList();
+        lastOperations = Maps.newHashMap();
+        generation++;
+    }
+
+    private void submitNextBatch() {
+        final List<Operation> operations;
+        synchronized (this) {
+            if (submitting || batches.isEmpty()) {
+                return;
+            }
+            operations = batches.poll();
+            submitting = true;
+        }
+        Futures.addCallback(submit(operations, true), new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(final Void result) {
+                batchDone();
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                batchDone();
+            }
+        });
+    }
+
+    private void batchDone() {
+        synchronized (this) {
+            submitting = false;
+        }
+        submitNextBatch();
+    }
+
+    /**
+     * @return a future completed once every caller of the operations was signalled, never failing
+     */
+    private ListenableFuture<Void> submit(final List<Operation> operations, final boolean splitOnFailure) {
+        final SettableFuture<Void> done = SettableFuture.create();
+        final CheckedFuture<Void, TransactionCommitFailedException> commit;
+        try {
+            final WriteTransaction transaction = dataBroker.newWriteOnlyTransaction();
+            for (Operation operation : operations) {
+                operation.apply(transaction);
+            }
+            commit = transaction.submit();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to submit {} operations", operations.size(), e);
+            for (Operation operation : operations) {
+                operation.callers.forEach(caller -> caller.setException(e));
+            }
+            done.set(null);
+            return done;
+        }
+        Futures.addCallback(commit, new FutureCallback<Void>() {
+            @Override
+            public void onSuccess(final Void result) {
+                LOG.debug("Flushed {} operations", operations.size());
+                for (Operation operation : operations) {
+                    operation.callers.forEach(caller -> caller.set(null));
+                }
+                done.set(null);
+            }
+
+            @Override
+            public void onFailure(final Throwable throwable) {
+                final Collection<List<Operation>> perNode = splitPerNode(operations);
+                if (splitOnFailure && perNode.size() > 1) {
+                    LOG.warn("Failed to flush {} operations on {} nodes, retrying each node", operations.size(),
+                            perNode.size(), throwable);
+                    final List<ListenableFuture<Void>> retries = Lists.newArrayListWithCapacity(perNode.size());
+                    perNode.forEach(nodeOperations -> retries.add(submit(nodeOperations, false)));
+                    // the next batch waits for the retries, they must not overwrite its operations
+                    Futures.addCallback(Futures.allAsList(retries), new FutureCallback<List<Void>>() {
+                        @Override
+                        public void onSuccess(final List<Void> result) {
+                            done.set(null);
+                        }
+
+                        @Override
+                        public void onFailure(final Throwable retryThrowable) {
+                            done.set(null);
+                        }
+                    });
+                    return;
+                }
+                LOG.warn("Failed to flush {} operations", operations.size(), throwable);
+                for (Operation operation : operations) {
+                    operation.callers.forEach(caller -> caller.setException(throwable));
+                }
+                done.set(null);
+            }
+        });
+        return done;
+    }
+
+    private static Collection<List<Operation>> splitPerNode(final List<Operation> operations) {
+        final Map<Object, List<Operation>> perNode = Maps.newLinkedHashMap();
+        for (Operation operation : operations) {
+            perNode.computeIfAbsent(operation.nodeKey(), key -> Lists.newArrayList()).add(operation);
+        }
+        return perNode.values();
+    }
+}
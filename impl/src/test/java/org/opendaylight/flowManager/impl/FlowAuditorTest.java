@@ -0,0 +1,197 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.ReadOnlyTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.flowManager.impl.NodeDataTreeChangeListener.PushResult;
+import org.opendaylight.yang.gen.v1.urn.ietf.params.xml.ns.yang.ietf.inet.types.rev130715.Uri;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.OutputActionCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.action.output.action._case.OutputActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.Action;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.ActionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.action.types.rev131112.action.list.ActionKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.FlowId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.Table;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.TableBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.Flow;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.inventory.rev130819.tables.table.FlowKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.InstructionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.flow.MatchBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.ApplyActionsCaseBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.instruction.apply.actions._case.ApplyActionsBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.flow.types.rev131026.instruction.list.InstructionKey;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeConnectorId;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class FlowAuditorTest {
+
+    private static final long DPID = 1;
+
+    private NodeDataTreeChangeListener nodeListener;
+    private FlowAuditor auditor;
+    // operational table returned by the next read, null when absent
+    private Table table;
+
+    @Before
+    public void setUp() {
+        final ReadOnlyTransaction transaction = Mockito.mock(ReadOnlyTransaction.class);
+        Mockito.doAnswer(invocation -> Futures.immediateCheckedFuture(Optional.fromNullable(table)))
+                .when(transaction).read(Mockito.any(LogicalDatastoreType.class), Mockito.any(InstanceIdentifier.class));
+        final DataBroker dataBroker = Mockito.mock(DataBroker.class);
+        Mockito.when(dataBroker.newReadOnlyTransaction()).thenReturn(transaction);
+
+        nodeListener = Mockito.mock(NodeDataTreeChangeListener.class);
+        Mockito.when(nodeListener.getExpectedFlows(DPID))
+                .thenReturn(Collections.singletonList(flow("openflow:1:2", "openflow:1:3", "openflow:1:4")));
+        Mockito.when(nodeListener.repairFlows(Mockito.anyLong(), Mockito.anySetOf(String.class)))
+                .thenReturn(Futures.immediateFuture(new PushResult(1, 0)));
+        // 0 reads per second, the audits are only run by the tests
+        auditor = new FlowAuditor(dataBroker, nodeListener, 0);
+    }
+
+    @After
+    public void tearDown() {
+        auditor.close();
+    }
+
+    /**
+     * @return a flood flow of the given in port with output actions ordered as listed
+     */
+    private static FlowBuilder flow(final String inPort, final String... outputs) {
+        final int[] orders = new int[outputs.length];
+        for (int i = 0; i < orders.length; i++) {
+            orders[i] = i;
+        }
+        return flow(inPort, outputs, orders);
+    }
+
+    /**
+     * @return a flood flow of the given in port with the output actions at the given orders, in list order
+     */
+    private static FlowBuilder flow(final String inPort, final String[] outputs, final int[] orders) {
+        final List<Action> actions = Lists.newArrayList();
+        for (int i = 0; i < outputs.length; i++) {
+            actions.add(new ActionBuilder()
+                    .setAction(new OutputActionCaseBuilder().setOutputAction(new OutputActionBuilder()
+                            .setOutputNodeConnector(new Uri(outputs[i])).setMaxLength(60).build()).build())
+                    .setOrder(orders[i])
+                    .setKey(new ActionKey(orders[i]))
+                    .build());
+        }
+        final String flowId = "flood-" + inPort;
+        return new FlowBuilder()
+                .setId(new FlowId(flowId))
+                .setKey(new FlowKey(new FlowId(flowId)))
+                .setTableId((short) 0)
+                .setPriority(0)
+                .setMatch(new MatchBuilder().setInPort(new NodeConnectorId(inPort)).build())
+                .setInstructions(new InstructionsBuilder().setInstruction(Collections.singletonList(
+                        new InstructionBuilder()
+                                .setInstruction(new ApplyActionsCaseBuilder().setApplyActions(
+                                        new ApplyActionsBuilder().setAction(actions).build()).build())
+                                .setOrder(0)
+                                .setKey(new InstructionKey(0))
+                                .build())).build());
+    }
+
+    private static long fingerprint(final FlowBuilder flowBuilder) {
+        return FlowAuditor.fingerprint(flowBuilder.build());
+    }
+
+    private static Table table(final FlowBuilder... flows) {
+        final List<Flow> built = Lists.newArrayList();
+        for (FlowBuilder flowBuilder : flows) {
+            built.add(flowBuilder.build());
+        }
+        return new TableBuilder().setId((short) 0).setFlow(built).build();
+    }
+
+    @Test
+    public void testFingerprintFollowsActionOrder() {
+        final long expected = fingerprint(flow("openflow:1:2", "openflow:1:3", "openflow:1:4"));
+        // listed in another order, but with the same action orders
+        Assert.assertEquals(expected, fingerprint(flow("openflow:1:2",
+                new String[] {"openflow:1:4", "openflow:1:3"}, new int[] {1, 0})));
+        // the switch would output in another order
+        Assert.assertNotEquals(expected, fingerprint(flow("openflow:1:2", "openflow:1:4", "openflow:1:3")));
+        Assert.assertNotEquals(expected, fingerprint(flow("openflow:1:2", "openflow:1:3")));
+        Assert.assertNotEquals(expected, fingerprint(flow("openflow:1:5", "openflow:1:3", "openflow:1:4")));
+        // ports 1,12 and 11,2 differ
+        Assert.assertNotEquals(fingerprint(flow("openflow:1:2", "1", "12")),
+                fingerprint(flow("openflow:1:2", "11", "2")));
+    }
+
+    @Test
+    public void testFingerprintNormalizesPortNames() {
+        Assert.assertEquals(fingerprint(flow("openflow:1:2", "openflow:1:3", "openflow:1:4")),
+                fingerprint(flow("2", "3", "4")));
+        Assert.assertEquals(fingerprint(flow("openflow:1:2", "openflow:1:3", "CONTROLLER")),
+                fingerprint(flow("2", "3", "CONTROLLER")));
+    }
+
+    @Test
+    public void testMatchingFlowIsNotRepaired() {
+        table = table(flow("2", "3", "4"));
+        auditor.audit(DPID);
+        auditor.audit(DPID);
+
+        Mockito.verify(nodeListener, Mockito.never()).repairFlows(Mockito.anyLong(), Mockito.anySetOf(String.class));
+        Assert.assertEquals(BigInteger.valueOf(2), auditor.getStatistics().getFlowsChecked());
+    }
+
+    @Test
+    public void testRepairAfterTwoAudits() {
+        table = table(flow("openflow:1:2", "openflow:1:4", "openflow:1:3"));
+        auditor.audit(DPID);
+        Mockito.verify(nodeListener, Mockito.never()).repairFlows(Mockito.anyLong(), Mockito.anySetOf(String.class));
+
+        // still different, now confirmed
+        auditor.audit(DPID);
+        final Set<String> repaired = Sets.newHashSet("flood-openflow:1:2");
+        Mockito.verify(nodeListener).repairFlows(DPID, repaired);
+        Assert.assertEquals(BigInteger.ONE, auditor.getStatistics().getFlowsDivergent());
+        Assert.assertEquals(BigInteger.ONE, auditor.getStatistics().getFlowsRepaired());
+
+        // a repaired flow needs two audits again before the next repair
+        auditor.audit(DPID);
+        Mockito.verify(nodeListener).repairFlows(DPID, repaired);
+        auditor.audit(DPID);
+        Mockito.verify(nodeListener, Mockito.times(2)).repairFlows(DPID, repaired);
+    }
+
+    @Test
+    public void testMissingFlowReportedLateIsNotRepaired() {
+        // not reported by the statistics yet
+        table = null;
+        auditor.audit(DPID);
+        table = table(flow("2", "3", "4"));
+        auditor.audit(DPID);
+        table = table();
+        auditor.audit(DPID);
+
+        Mockito.verify(nodeListener, Mockito.never()).repairFlows(Mockito.anyLong(), Mockito.anySetOf(String.class));
+    }
+}
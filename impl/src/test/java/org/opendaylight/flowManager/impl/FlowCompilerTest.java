@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+public class FlowCompilerTest {
+
+    private static final IntFunction<String> TASK = i -> "flow-" + i;
+
+    private FlowCompiler serial;
+    private FlowCompiler forked;
+
+    @Before
+    public void setUp() {
+        serial = new FlowCompiler(1, Integer.MAX_VALUE);
+        forked = new FlowCompiler(4, FlowCompiler.DEFAULT_THRESHOLD);
+    }
+
+    @After
+    public void tearDown() {
+        serial.close();
+        forked.close();
+    }
+
+    private static List<String> expected(final int count) {
+        final List<String> flows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            flows.add(TASK.apply(i));
+        }
+        return flows;
+    }
+
+    @Test
+    public void testSerialAndForkedAreIdentical() {
+        final int threshold = FlowCompiler.DEFAULT_THRESHOLD;
+        for (final int count : new int[] {0, 1, threshold - 1, threshold, threshold + 1, 10 * threshold + 3}) {
+            final List<String> expected = expected(count);
+            Assert.assertEquals(expected, serial.compile(count, TASK));
+            Assert.assertEquals(expected, forked.compile(count, TASK));
+        }
+    }
+
+    @Test
+    public void testThresholdIsCompiledSerially() {
+        final Thread caller = Thread.currentThread();
+        for (final boolean onCaller : forked.compile(FlowCompiler.DEFAULT_THRESHOLD,
+                i -> Thread.currentThread() == caller)) {
+            Assert.assertTrue(onCaller);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.opendaylight.controller.md.sal.binding.api.NotificationPublishService;
+import org.opendaylight.flowManager.impl.NodeDataTreeChangeListener.PushResult;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ReprovisionInputBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ReprovisionOutput;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.ReprovisionProgress;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.reprovision.output.FailedNode;
+import org.opendaylight.yangtools.yang.binding.Notification;
+import org.opendaylight.yangtools.yang.common.RpcResult;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FlowManagerServiceImplTest {
+
+    private NodeDataTreeChangeListener nodeListener;
+    private NotificationPublishService notificationPublishService;
+    private FlowManagerServiceImpl service;
+
+    @Before
+    public void setUp() {
+        nodeListener = Mockito.mock(NodeDataTreeChangeListener.class);
+        notificationPublishService = Mockito.mock(NotificationPublishService.class);
+        service = new FlowManagerServiceImpl(nodeListener, Mockito.mock(FlowAuditor.class),
+                notificationPublishService);
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+    }
+
+    private void provision(final int count) {
+        final List<SwitchPorts> switches = Lists.newArrayList();
+        for (int dpid = 1; dpid <= count; dpid++) {
+            switches.add(new SwitchPorts(dpid, new int[] {1, 2, 3}));
+        }
+        Mockito.when(nodeListener.getProvisionedSwitches()).thenReturn(switches);
+    }
+
+    private RpcResult<ReprovisionOutput> reprovision(final Integer parallelism, final Integer batchSize)
+            throws Exception {
+        return service.reprovision(new ReprovisionInputBuilder().setParallelism(parallelism)
+                .setBatchSize(batchSize).build()).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testProgressNotifications() throws Exception {
+        provision(5);
+        Mockito.when(nodeListener.reprovision(Mockito.anyLong())).thenReturn(new PushResult(3, 0));
+
+        final RpcResult<ReprovisionOutput> result = reprovision(2, 2);
+        Assert.assertTrue(result.isSuccessful());
+        Assert.assertEquals(Long.valueOf(5), result.getResult().getNodesTotal());
+        Assert.assertEquals(Long.valueOf(5), result.getResult().getNodesReprovisioned());
+        Assert.assertEquals(Long.valueOf(0), result.getResult().getNodesFailed());
+        Assert.assertEquals(BigInteger.valueOf(15), result.getResult().getFlowsWritten());
+
+        // one notification per batch of 2 nodes
+        final ArgumentCaptor<Notification> notifications = ArgumentCaptor.forClass(Notification.class);
+        Mockito.verify(notificationPublishService, Mockito.times(3)).offerNotification(notifications.capture());
+        final long[] nodesDone = {2, 4, 5};
+        for (int i = 0; i < nodesDone.length; i++) {
+            final ReprovisionProgress progress = (ReprovisionProgress) notifications.getAllValues().get(i);
+            Assert.assertEquals(Long.valueOf(5), progress.getNodesTotal());
+            Assert.assertEquals(Long.valueOf(nodesDone[i]), progress.getNodesDone());
+            Assert.assertEquals(BigInteger.valueOf(3 * nodesDone[i]), progress.getFlowsWritten());
+        }
+    }
+
+    @Test
+    public void testParallelismCap() throws Exception {
+        provision(12);
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        Mockito.when(nodeListener.reprovision(Mockito.anyLong())).thenAnswer(invocation -> {
+            final int current = concurrent.incrementAndGet();
+            maxConcurrent.accumulateAndGet(current, Math::max);
+            Thread.sleep(20);
+            concurrent.decrementAndGet();
+            return new PushResult(3, 0);
+        });
+
+        final RpcResult<ReprovisionOutput> result = reprovision(3, 12);
+        Assert.assertTrue(result.isSuccessful());
+        Mockito.verify(nodeListener, Mockito.times(12)).reprovision(Mockito.anyLong());
+        Assert.assertTrue("at most 3 nodes at a time, got " + maxConcurrent.get(),
+                maxConcurrent.get() >= 1 && maxConcurrent.get() <= 3);
+    }
+
+    @Test
+    public void testFailedNodes() throws Exception {
+        provision(3);
+        Mockito.when(nodeListener.reprovision(1L)).thenReturn(new PushResult(3, 0));
+        Mockito.when(nodeListener.reprovision(2L))
+                .thenThrow(new IllegalStateException("Node openflow:2 is not in the topology"));
+        Mockito.when(nodeListener.reprovision(3L)).thenReturn(new PushResult(2, 1));
+
+        final RpcResult<ReprovisionOutput> result = reprovision(2, 32);
+        Assert.assertTrue(result.isSuccessful());
+        final ReprovisionOutput output = result.getResult();
+        Assert.assertEquals(Long.valueOf(3), output.getNodesTotal());
+        Assert.assertEquals(Long.valueOf(1), output.getNodesReprovisioned());
+        Assert.assertEquals(Long.valueOf(2), output.getNodesFailed());
+        Assert.assertEquals(BigInteger.valueOf(5), output.getFlowsWritten());
+        final List<FailedNode> failedNodes = output.getFailedNode();
+        Assert.assertEquals(2, failedNodes.size());
+        Assert.assertEquals("openflow:2", failedNodes.get(0).getNodeId());
+        Assert.assertEquals("Node openflow:2 is not in the topology", failedNodes.get(0).getReason());
+        Assert.assertEquals("openflow:3", failedNodes.get(1).getNodeId());
+        Assert.assertEquals("1 flows rejected by the switch", failedNodes.get(1).getReason());
+    }
+
+    @Test
+    public void testUnexpectedErrorFailsTheRpc() throws Exception {
+        Mockito.when(nodeListener.getProvisionedSwitches()).thenThrow(new IllegalStateException("broken"));
+        final RpcResult<ReprovisionOutput> result = reprovision(2, 32);
+        Assert.assertFalse(result.isSuccessful());
+        Assert.assertFalse(result.getErrors().isEmpty());
+
+        // the failed run does not block the next one
+        Mockito.reset(nodeListener);
+        provision(1);
+        Mockito.when(nodeListener.reprovision(1L)).thenReturn(new PushResult(3, 0));
+        Assert.assertTrue(reprovision(2, 32).isSuccessful());
+    }
+
+    @Test
+    public void testOneReprovisionAtATime() throws Exception {
+        provision(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(nodeListener.reprovision(1L)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return new PushResult(3, 0);
+        });
+
+        final Future<RpcResult<ReprovisionOutput>> first = service.reprovision(new ReprovisionInputBuilder().build());
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(reprovision(2, 32).isSuccessful());
+        release.countDown();
+        Assert.assertTrue(first.get(10, TimeUnit.SECONDS).isSuccessful());
+    }
+
+    @Test
+    public void testReprovisionAfterClose() throws Exception {
+        service.close();
+        final RpcResult<ReprovisionOutput> result = reprovision(2, 32);
+        Assert.assertFalse(result.isSuccessful());
+    }
+}
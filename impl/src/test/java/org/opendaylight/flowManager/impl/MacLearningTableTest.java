@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.flowManager.impl.MacLearningTable.Learned;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MacLearningTableTest {
+
+    private static final long REFRESH_INTERVAL = 1000;
+
+    private final List<Long> evicted = new ArrayList<>();
+
+    private MacLearningTable table(final int capacity) {
+        return new MacLearningTable(capacity, REFRESH_INTERVAL, (mac, port) -> evicted.add(mac));
+    }
+
+    @Test
+    public void testLearn() {
+        final MacLearningTable table = table(4);
+        Assert.assertEquals(Learned.NEW, table.learn(0xa, 1, 0));
+        Assert.assertEquals(Learned.UNCHANGED, table.learn(0xa, 1, 10));
+        Assert.assertEquals(Learned.MOVED, table.learn(0xa, 2, 20));
+        Assert.assertEquals(2, table.lookup(0xa));
+        Assert.assertEquals(MacLearningTable.NO_PORT, table.lookup(0xb));
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testStaleAfterRefreshInterval() {
+        final MacLearningTable table = table(4);
+        table.learn(0xa, 1, 0);
+        Assert.assertEquals(Learned.UNCHANGED, table.learn(0xa, 1, REFRESH_INTERVAL - 1));
+        Assert.assertEquals(Learned.STALE, table.learn(0xa, 1, REFRESH_INTERVAL));
+        // reported once, the entry counts as installed again
+        Assert.assertEquals(Learned.UNCHANGED, table.learn(0xa, 1, REFRESH_INTERVAL + 1));
+        // a move installs the entry again as well
+        Assert.assertEquals(Learned.MOVED, table.learn(0xa, 2, 2 * REFRESH_INTERVAL + 500));
+        Assert.assertEquals(Learned.UNCHANGED, table.learn(0xa, 2, 3 * REFRESH_INTERVAL));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlySeen() {
+        final MacLearningTable table = table(3);
+        table.learn(0xa, 1, 0);
+        table.learn(0xb, 2, 1);
+        table.learn(0xc, 3, 2);
+        // seeing a makes b the least recently seen entry
+        table.learn(0xa, 1, 3);
+        Assert.assertEquals(Learned.NEW, table.learn(0xd, 4, 4));
+        Assert.assertEquals(Arrays.asList(0xbL), evicted);
+        Assert.assertEquals(MacLearningTable.NO_PORT, table.lookup(0xb));
+        Assert.assertEquals(3, table.size());
+
+        table.learn(0xe, 5, 5);
+        Assert.assertEquals(Arrays.asList(0xbL, 0xcL), evicted);
+        Assert.assertEquals(1, table.lookup(0xa));
+        Assert.assertEquals(4, table.lookup(0xd));
+        Assert.assertEquals(5, table.lookup(0xe));
+    }
+
+    @Test
+    public void testRemoveKeepsReinstalledEntries() {
+        final MacLearningTable table = table(4);
+        table.learn(0xa, 1, 100);
+        Assert.assertFalse(table.remove(0xa, 99));
+        Assert.assertTrue(evicted.isEmpty());
+        Assert.assertTrue(table.remove(0xa, 100));
+        Assert.assertEquals(Arrays.asList(0xaL), evicted);
+        Assert.assertEquals(0, table.size());
+        Assert.assertFalse(table.remove(0xa, 100));
+        Assert.assertEquals(Learned.NEW, table.learn(0xa, 1, 200));
+    }
+
+    @Test
+    public void testClear() {
+        final MacLearningTable table = table(4);
+        table.learn(0xa, 1, 0);
+        table.learn(0xb, 2, 1);
+        table.clear();
+        Assert.assertEquals(Arrays.asList(0xaL, 0xbL), evicted);
+        Assert.assertEquals(0, table.size());
+        Assert.assertEquals(MacLearningTable.NO_PORT, table.lookup(0xa));
+    }
+
+    @Test
+    public void testReusesFreedSlots() {
+        final MacLearningTable table = table(2);
+        for (long mac = 0; mac < 999; mac++) {
+            Assert.assertEquals(Learned.NEW, table.learn(mac, mac, mac));
+            Assert.assertEquals(mac, table.lookup(mac));
+            if (mac % 3 == 0) {
+                table.remove(mac, mac);
+            }
+        }
+        Assert.assertEquals(2, table.size());
+        Assert.assertEquals(998, table.lookup(998));
+        Assert.assertEquals(997, table.lookup(997));
+    }
+}
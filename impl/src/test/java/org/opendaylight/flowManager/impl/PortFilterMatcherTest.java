@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.PortFilterBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.port.filter.Rule;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.port.filter.RuleBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.port.filter.RuleKey;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class PortFilterMatcherTest {
+
+    private static final SwitchPorts SWITCH_1 = new SwitchPorts(1, new int[] {1, 2, 3, 10, SwitchPorts.LOCAL});
+    private static final SwitchPorts SWITCH_2 = new SwitchPorts(2, new int[] {1, 2, 3, 10, SwitchPorts.LOCAL});
+
+    private static RuleBuilder rule(final String name, final Rule.Action action) {
+        return new RuleBuilder().setKey(new RuleKey(name)).setName(name).setAction(action);
+    }
+
+    private static PortFilterMatcher compile(final RuleBuilder... rules) {
+        final Rule[] built = new Rule[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            built[i] = rules[i].build();
+        }
+        return PortFilterMatcher.compile(new PortFilterBuilder().setRule(Arrays.asList(built)).build());
+    }
+
+    private static SwitchPorts ports(final long dpid, final int... ports) {
+        return new SwitchPorts(dpid, ports);
+    }
+
+    @Test
+    public void testAllowAll() {
+        Assert.assertSame(PortFilterMatcher.ALLOW_ALL, PortFilterMatcher.compile(null));
+        Assert.assertSame(PortFilterMatcher.ALLOW_ALL, PortFilterMatcher.compile(new PortFilterBuilder().build()));
+        Assert.assertSame(PortFilterMatcher.ALLOW_ALL, PortFilterMatcher.compile(
+                new PortFilterBuilder().setRule(Collections.<Rule>emptyList()).build()));
+        Assert.assertSame(SWITCH_1, PortFilterMatcher.ALLOW_ALL.filter(SWITCH_1));
+    }
+
+    @Test
+    public void testFirstMatchingRuleWins() {
+        final PortFilterMatcher includeFirst = compile(
+                rule("keep-2", Rule.Action.Include).setPortRangeStart(2L),
+                rule("drop-1-3", Rule.Action.Exclude).setPortRangeStart(1L).setPortRangeEnd(3L));
+        Assert.assertEquals(ports(1, 2, 10, SwitchPorts.LOCAL), includeFirst.filter(SWITCH_1));
+
+        final PortFilterMatcher excludeFirst = compile(
+                rule("drop-1-3", Rule.Action.Exclude).setPortRangeStart(1L).setPortRangeEnd(3L),
+                rule("keep-2", Rule.Action.Include).setPortRangeStart(2L));
+        Assert.assertEquals(ports(1, 10, SwitchPorts.LOCAL), excludeFirst.filter(SWITCH_1));
+    }
+
+    @Test
+    public void testUnmatchedPortsAreIncluded() {
+        final PortFilterMatcher matcher = compile(rule("drop-10", Rule.Action.Exclude).setPortRangeStart(10L));
+        Assert.assertEquals(ports(1, 1, 2, 3, SwitchPorts.LOCAL), matcher.filter(SWITCH_1));
+        final PortFilterMatcher includeOnly = compile(rule("keep-10", Rule.Action.Include).setPortRangeStart(10L));
+        Assert.assertSame(SWITCH_1, includeOnly.filter(SWITCH_1));
+    }
+
+    @Test
+    public void testPortRanges() {
+        final PortFilterMatcher matcher = compile(
+                rule("drop-2-10", Rule.Action.Exclude).setPortRangeStart(2L).setPortRangeEnd(10L));
+        // the LOCAL port has no number a range could match
+        Assert.assertEquals(ports(1, 1, SwitchPorts.LOCAL), matcher.filter(SWITCH_1));
+
+        final PortFilterMatcher unsigned = compile(
+                rule("drop-high", Rule.Action.Exclude).setPortRangeStart(0x80000000L).setPortRangeEnd(0xfffffff0L));
+        Assert.assertEquals(ports(1, 1), unsigned.filter(ports(1, 1, 0xfffffff0)));
+    }
+
+    @Test
+    public void testPortPattern() {
+        final PortFilterMatcher matcher = compile(rule("drop-local", Rule.Action.Exclude).setPortPattern("LOCAL"));
+        Assert.assertEquals(ports(1, 1, 2, 3, 10), matcher.filter(SWITCH_1));
+
+        final PortFilterMatcher ranged = compile(
+                rule("drop-1x", Rule.Action.Exclude).setPortPattern("1.*").setPortRangeStart(1L).setPortRangeEnd(9L));
+        Assert.assertEquals(ports(1, 2, 3, 10, SwitchPorts.LOCAL), ranged.filter(SWITCH_1));
+    }
+
+    @Test
+    public void testNodePattern() {
+        final PortFilterMatcher matcher = compile(
+                rule("drop-switch-2", Rule.Action.Exclude).setNodePattern("openflow:2"));
+        Assert.assertSame(SWITCH_1, matcher.filter(SWITCH_1));
+        Assert.assertEquals(0, matcher.filter(SWITCH_2).size());
+        // the rules left for a switch are cached, filtering again gives the same result
+        Assert.assertSame(SWITCH_1, matcher.filter(SWITCH_1));
+        Assert.assertEquals(0, matcher.filter(SWITCH_2).size());
+    }
+
+    @Test
+    public void testForgetNode() {
+        final PortFilterMatcher matcher = compile(
+                rule("drop-switch-2", Rule.Action.Exclude).setNodePattern("openflow:2"));
+        matcher.filter(SWITCH_1);
+        matcher.filter(SWITCH_2);
+        Assert.assertEquals(2, matcher.cachedNodes());
+
+        matcher.forgetNode(2);
+        Assert.assertEquals(1, matcher.cachedNodes());
+        // a switch coming back gets its rules again
+        Assert.assertEquals(0, matcher.filter(SWITCH_2).size());
+        Assert.assertEquals(2, matcher.cachedNodes());
+
+        matcher.clear();
+        Assert.assertEquals(0, matcher.cachedNodes());
+        Assert.assertSame(SWITCH_1, matcher.filter(SWITCH_1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() {
+        compile(rule("bad", Rule.Action.Exclude).setPortPattern("eth["));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyRange() {
+        compile(rule("bad", Rule.Action.Exclude).setPortRangeStart(10L).setPortRangeEnd(2L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRangeEndWithoutStart() {
+        compile(rule("bad", Rule.Action.Exclude).setPortRangeEnd(2L));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2016 Inocybe, Inc. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl;
+
+import com.google.common.util.concurrent.Futures;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+
+import java.util.BitSet;
+
+public class PortStatusDataTreeChangeListenerTest {
+
+    // long enough for the background scheduler to never run during a test
+    private static final long DAMPING = 3600000;
+    private static final long T0 = 1000000;
+
+    private NodeDataTreeChangeListener nodeListener;
+    private PortLiveness portLiveness;
+    private PortStatusDataTreeChangeListener portStatus;
+
+    @Before
+    public void setUp() {
+        nodeListener = Mockito.mock(NodeDataTreeChangeListener.class);
+        Mockito.when(nodeListener.patchPorts(Mockito.anyLong(), Mockito.any(BitSet.class)))
+                .thenReturn(Futures.immediateFuture(0));
+        portLiveness = new PortLiveness();
+        portStatus = new PortStatusDataTreeChangeListener(Mockito.mock(DataBroker.class), portLiveness,
+                nodeListener, DAMPING);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        portStatus.close();
+    }
+
+    private static BitSet ports(final int... ports) {
+        final BitSet bitSet = new BitSet();
+        for (final int port : ports) {
+            bitSet.set(port);
+        }
+        return bitSet;
+    }
+
+    @Test
+    public void testFlapWithinIntervalIsNotPatched() {
+        portStatus.record(1, 2, false, T0);
+        portStatus.record(1, 2, true, T0 + 10);
+        portStatus.applyStableChanges(T0 + 10 + DAMPING);
+
+        Mockito.verify(nodeListener, Mockito.never()).patchPorts(Mockito.anyLong(), Mockito.any(BitSet.class));
+        Assert.assertTrue(portLiveness.getDownPorts(1).isEmpty());
+    }
+
+    @Test
+    public void testStableChangesArePatchedOnce() {
+        portStatus.record(1, 2, false, T0);
+        portStatus.record(1, 3, false, T0 + 10);
+
+        portStatus.applyStableChanges(T0 + DAMPING);
+        Mockito.verify(nodeListener, Mockito.never()).patchPorts(Mockito.anyLong(), Mockito.any(BitSet.class));
+
+        portStatus.applyStableChanges(T0 + 10 + DAMPING);
+        Mockito.verify(nodeListener).patchPorts(1, ports(2, 3));
+        Assert.assertEquals(ports(2, 3), portLiveness.getDownPorts(1));
+
+        // nothing left pending
+        portStatus.applyStableChanges(T0 + 10 * DAMPING);
+        Mockito.verify(nodeListener).patchPorts(Mockito.anyLong(), Mockito.any(BitSet.class));
+    }
+
+    @Test
+    public void testFlappingPortIsPatchedAfterTwoIntervals() {
+        boolean live = true;
+        for (long time = T0; time < T0 + 2 * DAMPING; time += DAMPING / 4) {
+            live = !live;
+            portStatus.record(1, 2, live, time);
+            portStatus.applyStableChanges(time);
+        }
+        Assert.assertTrue(live);
+        portStatus.record(1, 3, false, T0 + 2 * DAMPING - 1);
+        Mockito.verify(nodeListener, Mockito.never()).patchPorts(Mockito.anyLong(), Mockito.any(BitSet.class));
+
+        // port 2 ends up live as applied, only port 3 is patched
+        portStatus.applyStableChanges(T0 + 2 * DAMPING);
+        Mockito.verify(nodeListener).patchPorts(1, ports(3));
+    }
+
+    @Test
+    public void testOnePatchPerSwitch() {
+        portStatus.record(1, 2, false, T0);
+        portStatus.record(2, 2, false, T0);
+        portStatus.record(2, 5, false, T0);
+        portStatus.applyStableChanges(T0 + DAMPING);
+
+        Mockito.verify(nodeListener).patchPorts(1, ports(2));
+        Mockito.verify(nodeListener).patchPorts(2, ports(2, 5));
+    }
+
+    @Test
+    public void testPortBackUpIsPatched() {
+        portStatus.record(1, 2, false, T0);
+        portStatus.applyStableChanges(T0 + DAMPING);
+        portStatus.record(1, 2, true, T0 + 2 * DAMPING);
+        portStatus.applyStableChanges(T0 + 3 * DAMPING);
+
+        Mockito.verify(nodeListener, Mockito.times(2)).patchPorts(1, ports(2));
+        Assert.assertTrue(portLiveness.getDownPorts(1).isEmpty());
+    }
+
+    @Test
+    public void testFloodsTo() {
+        // the flow of a port floods to every other port
+        Assert.assertFalse(NodeDataTreeChangeListener.floodsTo(2, ports()));
+        Assert.assertFalse(NodeDataTreeChangeListener.floodsTo(2, ports(2)));
+        Assert.assertTrue(NodeDataTreeChangeListener.floodsTo(1, ports(2)));
+        Assert.assertTrue(NodeDataTreeChangeListener.floodsTo(2, ports(2, 3)));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2016 Noviflow and others. All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package org.opendaylight.flowManager.impl.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification;
+import org.opendaylight.controller.md.sal.binding.api.DataObjectModification.ModificationType;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeIdentifier;
+import org.opendaylight.controller.md.sal.binding.api.DataTreeModification;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.flowManager.impl.utils.DataTreeChangeBatch.Change;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.PortFilter;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.port.filter.Rule;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.port.filter.RuleBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.params.xml.ns.yang.flowmanager.rev150105.port.filter.RuleKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class DataTreeChangeBatchTest {
+
+    private static InstanceIdentifier<Rule> path(final String name) {
+        return InstanceIdentifier.create(PortFilter.class).child(Rule.class, new RuleKey(name));
+    }
+
+    private static Rule rule(final String name, final String portPattern) {
+        return new RuleBuilder().setKey(new RuleKey(name)).setName(name).setPortPattern(portPattern).build();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static DataTreeModification<Rule> modification(final ModificationType type, final String name,
+                                                           final Rule before, final Rule after) {
+        final DataObjectModification<Rule> root = Mockito.mock(DataObjectModification.class);
+        Mockito.when(root.getModificationType()).thenReturn(type);
+        Mockito.when(root.getDataBefore()).thenReturn(before);
+        Mockito.when(root.getDataAfter()).thenReturn(after);
+        final DataTreeModification<Rule> change = Mockito.mock(DataTreeModification.class);
+        Mockito.when(change.getRootPath())
+                .thenReturn(new DataTreeIdentifier<>(LogicalDatastoreType.CONFIGURATION, path(name)));
+        Mockito.when(change.getRootNode()).thenReturn(root);
+        return change;
+    }
+
+    @SafeVarargs
+    private static DataTreeChangeBatch<Rule> fold(final DataTreeModification<Rule>... changes) {
+        return DataTreeChangeBatch.fold(Arrays.asList(changes));
+    }
+
+    @Test
+    public void testAdd() {
+        final Rule after = rule("r1", "eth.*");
+        final DataTreeChangeBatch<Rule> batch = fold(modification(ModificationType.WRITE, "r1", null, after));
+        Assert.assertEquals(1, batch.getAdded().size());
+        Assert.assertEquals(path("r1"), batch.getAdded().get(0).getIdentifier());
+        Assert.assertNull(batch.getAdded().get(0).getDataBefore());
+        Assert.assertEquals(after, batch.getAdded().get(0).getDataAfter());
+        Assert.assertTrue(batch.getUpdated().isEmpty());
+        Assert.assertTrue(batch.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testAddThenDeleteIsDropped() {
+        final Rule after = rule("r1", "eth.*");
+        final DataTreeChangeBatch<Rule> batch = fold(
+                modification(ModificationType.WRITE, "r1", null, after),
+                modification(ModificationType.DELETE, "r1", after, null));
+        Assert.assertTrue(batch.isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        final Rule before = rule("r1", "eth.*");
+        final DataTreeChangeBatch<Rule> batch = fold(modification(ModificationType.DELETE, "r1", before, null));
+        Assert.assertEquals(1, batch.getRemoved().size());
+        Assert.assertEquals(before, batch.getRemoved().get(0).getDataBefore());
+        Assert.assertNull(batch.getRemoved().get(0).getDataAfter());
+        Assert.assertTrue(batch.getAdded().isEmpty());
+        Assert.assertTrue(batch.getUpdated().isEmpty());
+    }
+
+    @Test
+    public void testIdenticalWriteIsDropped() {
+        final DataTreeChangeBatch<Rule> batch = fold(
+                modification(ModificationType.WRITE, "r1", rule("r1", "eth.*"), rule("r1", "eth.*")));
+        Assert.assertTrue(batch.isEmpty());
+    }
+
+    @Test
+    public void testChangedWriteIsUpdate() {
+        final Rule before = rule("r1", "eth.*");
+        final Rule after = rule("r1", "LOCAL");
+        final DataTreeChangeBatch<Rule> batch = fold(modification(ModificationType.WRITE, "r1", before, after));
+        Assert.assertEquals(1, batch.getUpdated().size());
+        Assert.assertEquals(before, batch.getUpdated().get(0).getDataBefore());
+        Assert.assertEquals(after, batch.getUpdated().get(0).getDataAfter());
+        Assert.assertTrue(batch.getAdded().isEmpty());
+        Assert.assertTrue(batch.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void testSubtreeModificationIsUpdate() {
+        final Rule rule = rule("r1", "eth.*");
+        final DataTreeChangeBatch<Rule> batch = fold(
+                modification(ModificationType.SUBTREE_MODIFIED, "r1", rule, rule));
+        Assert.assertEquals(1, batch.getUpdated().size());
+    }
+
+    @Test
+    public void testWritesFoldFromFirstToLast() {
+        final Rule first = rule("r1", "eth.*");
+        final Rule last = rule("r1", "LOCAL");
+        final DataTreeChangeBatch<Rule> batch = fold(
+                modification(ModificationType.WRITE, "r1", first, rule("r1", "tap.*")),
+                modification(ModificationType.WRITE, "r1", rule("r1", "tap.*"), last));
+        Assert.assertEquals(1, batch.getUpdated().size());
+        Assert.assertEquals(first, batch.getUpdated().get(0).getDataBefore());
+        Assert.assertEquals(last, batch.getUpdated().get(0).getDataAfter());
+
+        final DataTreeChangeBatch<Rule> reverted = fold(
+                modification(ModificationType.WRITE, "r1", first, last),
+                modification(ModificationType.WRITE, "r1", last, rule("r1", "eth.*")));
+        Assert.assertTrue(reverted.isEmpty());
+    }
+
+    @Test
+    public void testDeleteThenWriteIsRemoveAndAdd() {
+        final Rule before = rule("r1", "eth.*");
+        final Rule after = rule("r1", "eth.*");
+        final DataTreeChangeBatch<Rule> batch = fold(
+                modification(ModificationType.DELETE, "r1", before, null),
+                modification(ModificationType.WRITE, "r1", null, after));
+        Assert.assertTrue(batch.getUpdated().isEmpty());
+        Assert.assertEquals(1, batch.getRemoved().size());
+        Assert.assertEquals(before, batch.getRemoved().get(0).getDataBefore());
+        Assert.assertNull(batch.getRemoved().get(0).getDataAfter());
+        Assert.assertEquals(1, batch.getAdded().size());
+        Assert.assertNull(batch.getAdded().get(0).getDataBefore());
+        Assert.assertEquals(after, batch.getAdded().get(0).getDataAfter());
+    }
+
+    @Test
+    public void testKeepsOrderOfFirstModification() {
+        final DataTreeChangeBatch<Rule> batch = fold(
+                modification(ModificationType.WRITE, "r2", null, rule("r2", "a")),
+                modification(ModificationType.WRITE, "r1", null, rule("r1", "b")),
+                modification(ModificationType.WRITE, "r3", null, rule("r3", "c")),
+                modification(ModificationType.WRITE, "r2", rule("r2", "a"), rule("r2", "d")));
+        final List<Change<Rule>> added = batch.getAdded();
+        Assert.assertEquals(3, added.size());
+        Assert.assertEquals(path("r2"), added.get(0).getIdentifier());
+        Assert.assertEquals(rule("r2", "d"), added.get(0).getDataAfter());
+        Assert.assertEquals(path("r1"), added.get(1).getIdentifier());
+        Assert.assertEquals(path("r3"), added.get(2).getIdentifier());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnhandledModificationType() {
+        fold(modification(null, "r1", null, null));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Inocybe Technologies. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opendaylight.flowManager.impl.utils.HashedTimingWheel.Timeout;
+import org.opendaylight.flowManager.impl.utils.HashedTimingWheel.Visitor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class HashedTimingWheelTest {
+
+    private static final long TICK = 10;
+
+    // 8 buckets of 10 ms, starting at 0
+    private final HashedTimingWheel<String> wheel = new HashedTimingWheel<>(8, TICK, 0);
+    private final List<String> expired = new ArrayList<>();
+    private final Visitor<String> collect = (payload, key) -> expired.add(payload);
+
+    @Test
+    public void testExpiresOnceItsTickEnded() {
+        final Timeout<String> timeout = wheel.schedule("a", 25);
+        wheel.advance(29, collect);
+        Assert.assertTrue(expired.isEmpty());
+        Assert.assertTrue(timeout.isPending());
+        wheel.advance(30, collect);
+        Assert.assertEquals(Arrays.asList("a"), expired);
+        Assert.assertFalse(timeout.isPending());
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testPastDeadlineExpiresOnNextTick() {
+        wheel.advance(100, collect);
+        wheel.schedule("late", 5);
+        wheel.advance(109, collect);
+        Assert.assertTrue(expired.isEmpty());
+        wheel.advance(110, collect);
+        Assert.assertEquals(Arrays.asList("late"), expired);
+    }
+
+    @Test
+    public void testMultiRoundDeadline() {
+        // tick 19 shares its bucket with ticks 3 and 11, it must survive their passes
+        wheel.schedule("near", 35);
+        wheel.schedule("far", 195);
+        wheel.advance(40, collect);
+        Assert.assertEquals(Arrays.asList("near"), expired);
+        wheel.advance(120, collect);
+        Assert.assertEquals(Arrays.asList("near"), expired);
+        wheel.advance(199, collect);
+        Assert.assertEquals(Arrays.asList("near"), expired);
+        wheel.advance(200, collect);
+        Assert.assertEquals(Arrays.asList("near", "far"), expired);
+    }
+
+    @Test
+    public void testCancel() {
+        final Timeout<String> timeout = wheel.schedule("a", 25);
+        wheel.schedule("b", 25);
+        Assert.assertEquals(2, wheel.size());
+        Assert.assertTrue(wheel.cancel(timeout));
+        Assert.assertFalse(wheel.cancel(timeout));
+        Assert.assertEquals(1, wheel.size());
+        wheel.advance(30, collect);
+        Assert.assertEquals(Arrays.asList("b"), expired);
+    }
+
+    @Test
+    public void testCancelDuringAdvance() {
+        // b and c share the bucket of a, d is due on a later tick of the same advance
+        final List<Timeout<String>> timeouts = new ArrayList<>();
+        timeouts.add(wheel.schedule("a", 25));
+        timeouts.add(wheel.schedule("b", 25));
+        timeouts.add(wheel.schedule("c", 25));
+        final Timeout<String> later = wheel.schedule("d", 45);
+        wheel.advance(50, (payload, key) -> {
+            expired.add(payload);
+            // cancelling the due timeouts or a later one must not break the bucket walk
+            timeouts.forEach(wheel::cancel);
+            wheel.cancel(later);
+        });
+        Assert.assertEquals(3, expired.size());
+        Assert.assertTrue(expired.containsAll(Arrays.asList("a", "b", "c")));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testScheduleDuringAdvance() {
+        wheel.schedule("a", 25);
+        wheel.advance(30, (payload, key) -> {
+            expired.add(payload);
+            // rescheduled on the following tick, not fired again by this advance
+            wheel.schedule(payload, 30);
+        });
+        Assert.assertEquals(Arrays.asList("a"), expired);
+        Assert.assertEquals(1, wheel.size());
+        wheel.advance(40, collect);
+        Assert.assertEquals(Arrays.asList("a", "a"), expired);
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testKeyIsHandedBack() {
+        final List<Long> keys = new ArrayList<>();
+        final Timeout<String> timeout = wheel.schedule("a", 42L, 25);
+        Assert.assertEquals(42L, timeout.getKey());
+        wheel.schedule("a", 7L, 25);
+        wheel.advance(30, (payload, key) -> keys.add(key));
+        keys.sort(null);
+        Assert.assertEquals(Arrays.asList(7L, 42L), keys);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Inocybe Technologies. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl.utils;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class LongObjectMapTest {
+
+    // the default map has 16 slots
+    private static final int MASK = 15;
+
+    @Test
+    public void testPutGetRemove() {
+        final LongObjectMap<String> map = new LongObjectMap<>();
+        Assert.assertTrue(map.isEmpty());
+        Assert.assertNull(map.put(1L, "one"));
+        Assert.assertNull(map.put(-1L, "minus one"));
+        Assert.assertEquals("one", map.put(1L, "uno"));
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("uno", map.get(1L));
+        Assert.assertEquals("minus one", map.get(-1L));
+        Assert.assertNull(map.get(2L));
+        Assert.assertEquals("uno", map.remove(1L));
+        Assert.assertNull(map.remove(1L));
+        Assert.assertFalse(map.containsKey(1L));
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullValue() {
+        new LongObjectMap<String>().put(1L, null);
+    }
+
+    @Test
+    public void testRemoveShiftsBackAcrossTheEnd() {
+        // three keys probing from the last slot wrap around to slots 0 and 1, a fourth one probes from slot 0
+        final long[] lastSlotKeys = keysWithHome(MASK, 3);
+        final long firstSlotKey = keysWithHome(0, 1)[0];
+        final LongObjectMap<Long> map = new LongObjectMap<>();
+        for (long key : lastSlotKeys) {
+            map.put(key, key);
+        }
+        map.put(firstSlotKey, firstSlotKey);
+
+        Assert.assertEquals(Long.valueOf(lastSlotKeys[0]), map.remove(lastSlotKeys[0]));
+        Assert.assertEquals(3, map.size());
+        Assert.assertNull(map.get(lastSlotKeys[0]));
+        Assert.assertEquals(Long.valueOf(lastSlotKeys[1]), map.get(lastSlotKeys[1]));
+        Assert.assertEquals(Long.valueOf(lastSlotKeys[2]), map.get(lastSlotKeys[2]));
+        Assert.assertEquals(Long.valueOf(firstSlotKey), map.get(firstSlotKey));
+
+        // the key probing from slot 0 must still be found once the wrapped keys before it are gone
+        Assert.assertEquals(Long.valueOf(lastSlotKeys[1]), map.remove(lastSlotKeys[1]));
+        Assert.assertEquals(Long.valueOf(lastSlotKeys[2]), map.remove(lastSlotKeys[2]));
+        Assert.assertEquals(Long.valueOf(firstSlotKey), map.get(firstSlotKey));
+        Assert.assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testRandomOperationsMatchHashMap() {
+        final Random random = new Random(42);
+        final LongObjectMap<Long> map = new LongObjectMap<>();
+        final Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            // few distinct keys so that the probe sequences are long and wrap around
+            final long key = random.nextInt(64) - 32;
+            if (random.nextBoolean()) {
+                Assert.assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            } else {
+                Assert.assertEquals(expected.remove(key), map.remove(key));
+            }
+            Assert.assertEquals(expected.size(), map.size());
+        }
+        for (long key = -32; key < 32; key++) {
+            Assert.assertEquals(expected.get(key), map.get(key));
+        }
+        final Map<Long, Long> visited = new HashMap<>();
+        map.forEach(visited::put);
+        Assert.assertEquals(expected, visited);
+    }
+
+    @Test
+    public void testRehash() {
+        final LongObjectMap<Long> map = new LongObjectMap<>(1);
+        for (long key = 0; key < 1000; key++) {
+            map.put(key * 0x100000000L, key);
+        }
+        Assert.assertEquals(1000, map.size());
+        for (long key = 0; key < 1000; key++) {
+            Assert.assertEquals(Long.valueOf(key), map.get(key * 0x100000000L));
+        }
+    }
+
+    /**
+     * @return keys whose probe sequence starts at the given slot of a 16 slots map
+     */
+    private static long[] keysWithHome(final int home, final int count) {
+        final long[] keys = new long[count];
+        int found = 0;
+        for (long key = 1; found < count; key++) {
+            final long h = key * 0x9E3779B97F4A7C15L;
+            if (((int) (h ^ (h >>> 32)) & MASK) == home) {
+                keys[found++] = key;
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2016 Inocybe Technologies. and others.  All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License v1.0 which accompanies this distribution,
+ * and is available at http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.opendaylight.flowManager.impl.utils;
+
+import com.google.common.util.concurrent.CheckedFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.opendaylight.controller.md.sal.binding.api.DataBroker;
+import org.opendaylight.controller.md.sal.binding.api.WriteTransaction;
+import org.opendaylight.controller.md.sal.common.api.data.LogicalDatastoreType;
+import org.opendaylight.controller.md.sal.common.api.data.TransactionCommitFailedException;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.NodeId;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.Nodes;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.Node;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeBuilder;
+import org.opendaylight.yang.gen.v1.urn.opendaylight.inventory.rev130819.nodes.NodeKey;
+import org.opendaylight.yangtools.yang.binding.InstanceIdentifier;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class WriteBehindFlusherTest {
+
+    private static final LogicalDatastoreType CONFIG = LogicalDatastoreType.CONFIGURATION;
+    private static final long NO_DELAY_FLUSH = TimeUnit.HOURS.toMillis(1);
+
+    private DataBroker dataBroker;
+
+    private static InstanceIdentifier<Node> path(final String nodeId) {
+        return InstanceIdentifier.builder(Nodes.class).child(Node.class, new NodeKey(new NodeId(nodeId))).build();
+    }
+
+    private static Node node(final String nodeId) {
+        return new NodeBuilder().setId(new NodeId(nodeId)).setKey(new NodeKey(new NodeId(nodeId))).build();
+    }
+
+    private static CheckedFuture<Void, TransactionCommitFailedException> committed() {
+        return Futures.immediateCheckedFuture(null);
+    }
+
+    private static CheckedFuture<Void, TransactionCommitFailedException> failed() {
+        return Futures.immediateFailedCheckedFuture(new TransactionCommitFailedException("commit failed"));
+    }
+
+    private static CheckedFuture<Void, TransactionCommitFailedException> pending(
+            final SettableFuture<Void> commit) {
+        return Futures.makeChecked(commit, e -> new TransactionCommitFailedException("commit failed", e));
+    }
+
+    private WriteTransaction transaction(final CheckedFuture<Void, TransactionCommitFailedException> result) {
+        final WriteTransaction transaction = Mockito.mock(WriteTransaction.class);
+        Mockito.when(transaction.submit()).thenReturn(result);
+        return transaction;
+    }
+
+    private static void assertFailed(final ListenableFuture<Void> future) throws InterruptedException {
+        try {
+            future.get(1, TimeUnit.SECONDS);
+            Assert.fail("Expected the operation to fail");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof TransactionCommitFailedException);
+        } catch (final TimeoutException e) {
+            Assert.fail("The operation was not completed");
+        }
+    }
+
+    @Before
+    public void setUp() {
+        dataBroker = Mockito.mock(DataBroker.class);
+    }
+
+    @Test
+    public void testPutSupersededByDelete() throws Exception {
+        final WriteTransaction transaction = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(transaction);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, NO_DELAY_FLUSH);
+
+        final ListenableFuture<Void> put = flusher.put(CONFIG, path("openflow:1"), node("openflow:1"));
+        final ListenableFuture<Void> delete = flusher.delete(CONFIG, path("openflow:1"));
+        Assert.assertFalse(put.isDone());
+        flusher.flush();
+
+        Assert.assertNull(put.get(1, TimeUnit.SECONDS));
+        Assert.assertNull(delete.get(1, TimeUnit.SECONDS));
+        Mockito.verify(dataBroker, Mockito.times(1)).newWriteOnlyTransaction();
+        Mockito.verify(transaction).delete(CONFIG, path("openflow:1"));
+        Mockito.verify(transaction, Mockito.never()).put(Mockito.eq(CONFIG), Mockito.eq(path("openflow:1")),
+                Mockito.any(Node.class), Mockito.anyBoolean());
+        flusher.close();
+    }
+
+    @Test
+    public void testMergesAreNotSuperseded() throws Exception {
+        final WriteTransaction transaction = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(transaction);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, NO_DELAY_FLUSH);
+
+        flusher.merge(CONFIG, path("openflow:1"), node("openflow:1"));
+        flusher.merge(CONFIG, path("openflow:1"), node("openflow:1"));
+        flusher.flush();
+
+        Mockito.verify(transaction, Mockito.times(2)).merge(CONFIG, path("openflow:1"), node("openflow:1"), true);
+        flusher.close();
+    }
+
+    @Test
+    public void testFlushOnSize() throws Exception {
+        final WriteTransaction transaction = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(transaction);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 2, NO_DELAY_FLUSH);
+
+        final ListenableFuture<Void> first = flusher.delete(CONFIG, path("openflow:1"));
+        Mockito.verify(dataBroker, Mockito.never()).newWriteOnlyTransaction();
+        Assert.assertFalse(first.isDone());
+        final ListenableFuture<Void> second = flusher.delete(CONFIG, path("openflow:2"));
+
+        Assert.assertNull(first.get(1, TimeUnit.SECONDS));
+        Assert.assertNull(second.get(1, TimeUnit.SECONDS));
+        Mockito.verify(dataBroker, Mockito.times(1)).newWriteOnlyTransaction();
+        Mockito.verify(transaction, Mockito.times(1)).submit();
+        flusher.close();
+    }
+
+    @Test
+    public void testFlushOnDelay() throws Exception {
+        final WriteTransaction transaction = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(transaction);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, 10);
+
+        final ListenableFuture<Void> future = flusher.delete(CONFIG, path("openflow:1"));
+        Assert.assertNull(future.get(5, TimeUnit.SECONDS));
+        Mockito.verify(transaction).delete(CONFIG, path("openflow:1"));
+        Mockito.verify(transaction, Mockito.times(1)).submit();
+        flusher.close();
+    }
+
+    @Test
+    public void testFailedFlushIsRetriedPerNode() throws Exception {
+        final WriteTransaction shared = transaction(failed());
+        final WriteTransaction node1 = transaction(committed());
+        final WriteTransaction node2 = transaction(failed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(shared, node1, node2);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, NO_DELAY_FLUSH);
+
+        final ListenableFuture<Void> first = flusher.delete(CONFIG, path("openflow:1"));
+        final ListenableFuture<Void> second = flusher.delete(CONFIG, path("openflow:2"));
+        final ListenableFuture<Void> third = flusher.merge(CONFIG, path("openflow:1"), node("openflow:1"));
+        flusher.flush();
+
+        Assert.assertNull(first.get(1, TimeUnit.SECONDS));
+        assertFailed(second);
+        Assert.assertNull(third.get(1, TimeUnit.SECONDS));
+        Mockito.verify(dataBroker, Mockito.times(3)).newWriteOnlyTransaction();
+        Mockito.verify(node1).delete(CONFIG, path("openflow:1"));
+        Mockito.verify(node1).merge(CONFIG, path("openflow:1"), node("openflow:1"), true);
+        Mockito.verify(node1, Mockito.never()).delete(CONFIG, path("openflow:2"));
+        Mockito.verify(node2).delete(CONFIG, path("openflow:2"));
+        flusher.close();
+    }
+
+    @Test
+    public void testFailedSingleNodeFlushIsNotRetried() throws Exception {
+        final WriteTransaction transaction = transaction(failed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(transaction);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, NO_DELAY_FLUSH);
+
+        final ListenableFuture<Void> first = flusher.delete(CONFIG, path("openflow:1"));
+        final ListenableFuture<Void> second = flusher.merge(CONFIG, path("openflow:1"), node("openflow:1"));
+        flusher.flush();
+
+        assertFailed(first);
+        assertFailed(second);
+        Mockito.verify(dataBroker, Mockito.times(1)).newWriteOnlyTransaction();
+        flusher.close();
+    }
+
+    @Test
+    public void testBatchesCommitInOrder() throws Exception {
+        final SettableFuture<Void> firstCommit = SettableFuture.create();
+        final WriteTransaction first = transaction(pending(firstCommit));
+        final WriteTransaction second = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(first, second);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 1, NO_DELAY_FLUSH);
+
+        final ListenableFuture<Void> delete = flusher.delete(CONFIG, path("openflow:1"));
+        final ListenableFuture<Void> put = flusher.put(CONFIG, path("openflow:1"), node("openflow:1"));
+        // the second batch waits for the first one
+        Mockito.verify(dataBroker, Mockito.times(1)).newWriteOnlyTransaction();
+        Assert.assertFalse(put.isDone());
+
+        firstCommit.set(null);
+        Assert.assertNull(delete.get(1, TimeUnit.SECONDS));
+        Assert.assertNull(put.get(1, TimeUnit.SECONDS));
+        Mockito.verify(dataBroker, Mockito.times(2)).newWriteOnlyTransaction();
+        Mockito.verify(second).put(CONFIG, path("openflow:1"), node("openflow:1"), true);
+        flusher.close();
+    }
+
+    @Test
+    public void testNextBatchWaitsForRetries() throws Exception {
+        final SettableFuture<Void> retryCommit = SettableFuture.create();
+        final WriteTransaction shared = transaction(failed());
+        final WriteTransaction node1 = transaction(pending(retryCommit));
+        final WriteTransaction node2 = transaction(committed());
+        final WriteTransaction next = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(shared, node1, node2, next);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, NO_DELAY_FLUSH);
+
+        flusher.put(CONFIG, path("openflow:1"), node("openflow:1"));
+        flusher.delete(CONFIG, path("openflow:2"));
+        flusher.flush();
+        final ListenableFuture<Void> later = flusher.delete(CONFIG, path("openflow:1"));
+        flusher.flush();
+        // the retry of openflow:1 is still pending, the later delete must not be submitted before it
+        Mockito.verify(dataBroker, Mockito.times(3)).newWriteOnlyTransaction();
+        Assert.assertFalse(later.isDone());
+
+        retryCommit.set(null);
+        Assert.assertNull(later.get(1, TimeUnit.SECONDS));
+        final InOrder inOrder = Mockito.inOrder(node1, next);
+        inOrder.verify(node1).submit();
+        inOrder.verify(next).delete(CONFIG, path("openflow:1"));
+        flusher.close();
+    }
+
+    @Test
+    public void testClosedFlusherFailsOperations() throws Exception {
+        final WriteTransaction transaction = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(transaction);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, NO_DELAY_FLUSH);
+
+        final ListenableFuture<Void> buffered = flusher.delete(CONFIG, path("openflow:1"));
+        flusher.close();
+        Assert.assertNull(buffered.get(1, TimeUnit.SECONDS));
+
+        final ListenableFuture<Void> rejected = flusher.delete(CONFIG, path("openflow:2"));
+        try {
+            rejected.get(1, TimeUnit.SECONDS);
+            Assert.fail("Expected the operation to fail");
+        } catch (final ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        Mockito.verify(dataBroker, Mockito.times(1)).newWriteOnlyTransaction();
+    }
+
+    @Test
+    public void testPutOverDelete() throws Exception {
+        final WriteTransaction transaction = transaction(committed());
+        Mockito.when(dataBroker.newWriteOnlyTransaction()).thenReturn(transaction);
+        final WriteBehindFlusher flusher = new WriteBehindFlusher(dataBroker, 16, NO_DELAY_FLUSH);
+
+        Assert.assertFalse(flusher.putOverDelete(CONFIG, path("openflow:1"), node("openflow:1")));
+        flusher.delete(CONFIG, path("openflow:2"));
+        Assert.assertTrue(flusher.putOverDelete(CONFIG, path("openflow:2"), node("openflow:2")));
+        flusher.flush();
+        // the delete was committed, nothing left to supersede
+        flusher.delete(CONFIG, path("openflow:1"));
+        flusher.flush();
+        Assert.assertFalse(flusher.putOverDelete(CONFIG, path("openflow:1"), node("openflow:1")));
+        flusher.close();
+    }
+}